@@ -384,7 +384,7 @@ public class FrequencyEdt extends Dialog {
 		shell.setCursor(shell.getDisplay().getSystemCursor(SWT.CURSOR_WAIT));   	
     	
     	final ImageData inData = views.getImage(true);
-    	m_fd = FFT.fft2D(inData);
+    	m_fd = FFT.rfft2D(inData);
     	updateTable();
 
     	// update output: recursively calling update is prevented in updateOutput
@@ -466,7 +466,7 @@ public class FrequencyEdt extends Dialog {
         				final int u = (u2 < 0) ? u2 + width : u2;
                 		final double dist = Math.hypot(u2, v2);
                 		
-                		if ((u != 0 || v != 0) && (lowPass && dist > r || !lowPass && dist < r)) {
+                		if (m_fd.isStored(u, v) && (u != 0 || v != 0) && (lowPass && dist > r || !lowPass && dist < r)) {
                 			if (lowPass) {
 	                			if (dist < r + sigmoidDomain) {
 	                				final double t = dist - r - sigmoidDomain/2;
@@ -527,13 +527,13 @@ public class FrequencyEdt extends Dialog {
 	    	views.close(false); 
     		break;
     	case 2: 
-    		outData = FFT.getPowerSpectrum(m_shiftedBtn.getSelection() ? m_fd.swapQuadrants() : m_fd);
+    		outData = FFT.getPowerSpectrum(m_shiftedBtn.getSelection() ? m_fd.shifted() : m_fd);
 			m_disableUpdate = true;
 			views.showImageInSecondView(outData);
 			m_disableUpdate = false;
 			break;
     	case 3:
-			outData = FFT.getPhaseSpectrum(m_shiftedBtn.getSelection() ? m_fd.swapQuadrants() : m_fd);
+			outData = FFT.getPhaseSpectrum(m_shiftedBtn.getSelection() ? m_fd.shifted() : m_fd);
 			m_disableUpdate = true;
 			views.showImageInSecondView(outData);
 			m_disableUpdate = false;
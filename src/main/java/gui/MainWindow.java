@@ -40,6 +40,7 @@ public class MainWindow {
 	private Label m_statusLabel, m_zoomLabel;
 	private MenuItem m_editMenuItem;
 	private ImageMenu m_imageMenu; // used in find-and-run
+	private boolean m_busy; // an image processor is running in a background thread
 
 	/////////////////////////////////////////////////////////////////////////////////////////////////////7
 	// public methods section
@@ -66,7 +67,7 @@ public class MainWindow {
 			m_shell.addShellListener(new ShellAdapter() {
 				@Override
 				public void shellClosed(ShellEvent e) {
-					e.doit = true;
+					e.doit = !m_busy;
 				}
 			});
 			m_shell.addDisposeListener(new DisposeListener() {
@@ -94,6 +95,11 @@ public class MainWindow {
 			dt.addDropListener(new DropTargetAdapter() {
 				@Override
 				public void dragEnter(DropTargetEvent event) {
+					if (m_busy) {
+						// the views must not change while an image processor is running
+						event.detail = DND.DROP_NONE;
+						return;
+					}
 					if (event.detail == DND.DROP_DEFAULT) {
 						if ((event.operations & DND.DROP_COPY) != 0) {
 							// set copy as default operation
@@ -113,7 +119,7 @@ public class MainWindow {
 				}
 				@Override
 				public void drop(DropTargetEvent event) {
-					if (event.data != null) {
+					if (event.data != null && !m_busy) {
 				        if (ImageTransfer.getInstance().isSupportedType(event.currentDataType)) {
 				        	// image transfer
 				        	ImageData inData = (ImageData)event.data;
@@ -392,6 +398,26 @@ public class MainWindow {
 		if (menuBar != null) menuBar.setEnabled(enabled);
 	}
 
+	/**
+	 * Disables the menu, the views, dropping files, and closing the window while an image processor 
+	 * runs in a background thread. Dialogs opened by the image processor remain usable.
+	 * @param busy
+	 */
+	public void setBusy(boolean busy) {
+		m_busy = busy;
+		setEnabledMenu(!busy);
+		m_views.setEnabled(!busy);
+	}
+
+	/**
+	 * Returns true if the menu is enabled
+	 * @return
+	 */
+	public boolean isEnabledMenu() {
+		Menu menuBar = m_shell.getMenuBar();
+		return menuBar != null && menuBar.getEnabled();
+	}
+
 	/**
 	 * Notifies all menus about input/output changes
 	 */
@@ -0,0 +1,171 @@
+package gui;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Dialog;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.ProgressBar;
+import org.eclipse.swt.widgets.Shell;
+
+import utils.Parallel;
+
+/**
+ * Progress Dialog: runs an operation in a background thread and shows the progress of its parallel loops.
+ * Each top-level loop restarts the progress bar at 0%.
+ * The dialog is opened if the operation is still running OpenDelay ms after its first progress report, 
+ * hence short operations don't show it at all.
+ */
+public class ProgressDlg extends Dialog {
+	private static final int OpenDelay = 400; // ms
+	
+	private Shell m_shell;
+	private ProgressBar m_progressBar;
+	private Button m_cancelBtn;
+	private Parallel.Monitor m_monitor;
+	private final AtomicInteger m_percent = new AtomicInteger(-1);	// progress of the current top-level loop in percent
+	private boolean m_finished;				// the operation has finished (user-interface thread only)
+	private boolean m_openScheduled;		// the delayed opening has been scheduled (user-interface thread only)
+	private final Runnable m_opener = this::openDelayed;
+
+	public ProgressDlg(Shell parent) {
+		super(parent);
+	}
+
+	/**
+	 * Runs the operation in a background thread. 
+	 * The calling user-interface thread dispatches events until the operation has finished.
+	 * @param title dialog title
+	 * @param operation
+	 * @return result of the operation
+	 * @throws CancellationException if the user has cancelled the operation
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T run(String title, Supplier<T> operation) {
+		final Display display = getParent().getDisplay();
+		final Object[] result = new Object[1];
+		final Throwable[] failure = new Throwable[1];
+		
+		setText(title);
+		// the progress is monotonic within a top-level loop and restarts at 0% with each further top-level loop
+		m_monitor = new Parallel.Monitor((done, total) -> {
+			if (done == 0) {
+				// a new top-level loop starts: all reports of the previous loop have been made
+				m_percent.set(0);
+				display.asyncExec(this::showProgress);
+			} else {
+				// reports of concurrent worker threads may arrive out of order
+				final int percent = (int)(100L*done/total);
+				
+				if (m_percent.getAndAccumulate(percent, Math::max) < percent) {
+					display.asyncExec(this::showProgress);
+				}
+			}
+		});
+		
+		Thread worker = new Thread(() -> {
+			Parallel.setMonitor(m_monitor);
+			try {
+				result[0] = operation.get();
+			} catch(Throwable t) {
+				failure[0] = t;
+			} finally {
+				// wakes up the user-interface thread
+				display.asyncExec(() -> m_finished = true);
+			}
+		}, title);
+		worker.setDaemon(true);
+		worker.start();
+		
+		while (!m_finished) {
+			if (!display.readAndDispatch()) display.sleep();
+		}
+		display.timerExec(-1, m_opener);
+		close();
+		
+		if (failure[0] instanceof RuntimeException) throw (RuntimeException)failure[0];
+		if (failure[0] instanceof Error) throw (Error)failure[0];
+		return (T)result[0];
+	}
+	
+	public void close() {
+		if (m_shell != null && !m_shell.isDisposed()) m_shell.dispose();
+	}
+	
+	/**
+	 * Shows the current progress. Reads m_percent instead of the posted value, because the posting order
+	 * of concurrent worker threads may differ from the order of their updates.
+	 */
+	private void showProgress() {
+		if (m_shell == null) {
+			if (!m_openScheduled) {
+				m_openScheduled = true;
+				getParent().getDisplay().timerExec(OpenDelay, m_opener);
+			}
+		} else if (!m_shell.isDisposed()) {
+			m_progressBar.setSelection(Math.max(0, m_percent.get()));
+		}
+	}
+	
+	private void openDelayed() {
+		if (!m_finished && m_shell == null) {
+			open();
+			m_progressBar.setSelection(Math.max(0, m_percent.get()));
+		}
+	}
+
+	private void open() {
+		m_shell = new Shell(getParent(), SWT.DIALOG_TRIM | SWT.APPLICATION_MODAL);
+		m_shell.setText(getText());
+		{
+	        GridLayout gl = new GridLayout(2, false);
+	        gl.horizontalSpacing = 7;
+	        gl.verticalSpacing = 7;
+	        gl.marginHeight = 7;
+	        gl.marginWidth = 7;
+	        m_shell.setLayout(gl);
+		}
+		
+		Label label = new Label(m_shell, SWT.NONE);
+		label.setText("Processing ...");
+		label.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 2, 1));
+		
+		m_progressBar = new ProgressBar(m_shell, SWT.SMOOTH | SWT.HORIZONTAL);
+		m_progressBar.setMinimum(0);
+		m_progressBar.setMaximum(100);
+		GridData gd = new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1);
+		gd.widthHint = 300;
+		m_progressBar.setLayoutData(gd);
+		
+		m_cancelBtn = new Button(m_shell, SWT.PUSH);
+		m_cancelBtn.setText(SWT.getMessage("SWT_Cancel"));
+		m_cancelBtn.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent event) {
+				cancel();
+			}
+		});
+		
+		// closing the dialog cancels the operation
+		m_shell.addListener(SWT.Close, event -> {
+			event.doit = false;
+			cancel();
+		});
+		
+		m_shell.pack();
+		m_shell.open();
+	}
+	
+	private void cancel() {
+		m_monitor.cancel();
+		m_cancelBtn.setEnabled(false);
+	}
+}
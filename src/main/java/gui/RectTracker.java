@@ -19,16 +19,23 @@ import main.Picsi;
  *
  */
 public class RectTracker {
-	View m_view = Picsi.getTwinView().getView(true);
+	View m_view;
 	MouseMoveListener m_mouseMoveListener;
 	MouseListener m_mouseListener;
 	PaintListener m_paintListener;
 	Rectangle m_rect;
 	int m_idx;
+	boolean m_menuEnabled;
 	
 	public RectTracker() {
-		m_view.setFocus();
-		Picsi.getTwinView().m_mainWnd.setEnabledMenu(false);
+		// the tracker might be created by an image processor running in a background thread
+		Picsi.syncExec(() -> {
+			m_view = Picsi.getTwinView().getView(true);
+			m_view.setFocus();
+			m_menuEnabled = Picsi.getTwinView().m_mainWnd.isEnabledMenu();
+			Picsi.getTwinView().m_mainWnd.setEnabledMenu(false);
+			return null;
+		});
 	}
 	
 	/**
@@ -38,6 +45,10 @@ public class RectTracker {
 	 * @return rectangle or null
 	 */
 	public Rectangle start(int w, int h) {
+		return Picsi.syncExec(() -> track(w, h));
+	}
+	
+	private Rectangle track(int w, int h) {
 		Display display = m_view.getDisplay();
 		Color black = display.getSystemColor(SWT.COLOR_BLACK);
 		Color white = display.getSystemColor(SWT.COLOR_WHITE);
@@ -114,7 +125,7 @@ public class RectTracker {
 			m_view.removeMouseListener(m_mouseListener);
 			m_view.removeMouseMoveListener(m_mouseMoveListener);
 			m_view.removePaintListener(m_paintListener);
-			Picsi.getTwinView().m_mainWnd.setEnabledMenu(true);
+			Picsi.getTwinView().m_mainWnd.setEnabledMenu(m_menuEnabled);
 		}
 	}
 
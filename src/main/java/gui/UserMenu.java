@@ -1,5 +1,7 @@
 package gui;
 
+import java.util.concurrent.CancellationException;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
@@ -92,19 +94,28 @@ public class UserMenu {
 	}
 	
 	private void run(MenuItem mi) {
+		String text = mi.getText();
+		int last = text.indexOf('\t');
+		if (last == -1) last = text.length();
+		String location = text.substring(0, last).replace("&", "");
+		
+		// the image processor runs in a background thread, the main window is disabled meanwhile
+		m_views.m_mainWnd.setBusy(true);
 		try {
 			IImageProcessor proc = (IImageProcessor)mi.getData();
+			final ImageData inData = m_views.getImage(true);
+			final int imageType = m_views.getImageType(true);
 			
-			ImageData output = proc.run(m_views.getImage(true), m_views.getImageType(true));
+			ImageData output = new ProgressDlg(m_menu.getShell()).run(location, () -> proc.run(inData, imageType));
 			if (output != null) {
 				m_views.showImageInSecondView(output);
 			}		
+		} catch(CancellationException e) {
+			// cancelled by user
 		} catch(Throwable e) {
-			String text = mi.getText();
-			int last = text.indexOf('\t');
-			if (last == -1) last = text.length();
-			String location = text.substring(0, last).replace("&", "");
 			m_views.m_mainWnd.showErrorDialog("ImageProcessing", location, e);
-		}						
+		} finally {
+			m_views.m_mainWnd.setBusy(false);
+		}
 	}
 }
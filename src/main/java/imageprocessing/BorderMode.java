@@ -0,0 +1,37 @@
+package imageprocessing;
+
+/**
+ * Border handling of neighborhood operations: defines which pixel is used for a coordinate outside of the image.
+ * <pre>
+ * Zero:   pixels outside of the image are 0
+ * Clamp:  the nearest border pixel is repeated (aaa|abcd|ddd)
+ * Mirror: the image is reflected at the border pixel (dcb|abcd|cba)
+ * </pre>
+ */
+public enum BorderMode {
+	Zero, Clamp, Mirror;
+
+	/**
+	 * Maps coordinate i to a valid coordinate in [0,n)
+	 * @param i coordinate, may be outside of [0,n)
+	 * @param n image width or height
+	 * @return valid coordinate or -1 if the pixel is 0 (mode Zero)
+	 */
+	public int index(int i, int n) {
+		if (i >= 0 && i < n) return i;
+
+		switch(this) {
+		case Zero:
+			return -1;
+		case Clamp:
+			return (i < 0) ? 0 : n - 1;
+		default:
+			if (n == 1) return 0;
+			final int period = 2*(n - 1);
+
+			i %= period;
+			if (i < 0) i += period;
+			return (i < n) ? i : period - i;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package imageprocessing;
+
+import java.util.Arrays;
+
+import imageprocessing.filter.GaussFilter;
+import imageprocessing.planar.GrayU8;
+import utils.Parallel;
+
+/**
+ * Canny edge detector: Gauss filter, Scharr gradient, non-maximum suppression, and hysteresis thresholding.
+ * The first three steps stream over rings of row buffers per band of rows and write the classified pixels
+ * directly into the output image, hence no intermediate image is materialized.
+ */
+public class Canny {
+	private static final int BandHeight = 64;	// number of rows processed by one task
+	private static final byte Weak = 1, Strong = (byte)255;
+	private static final BorderMode Mode = BorderMode.Clamp;
+
+	/**
+	 * Computes thin and connected edges
+	 * @param in input image
+	 * @param sigma standard deviation of the Gauss filter
+	 * @param low lower threshold of the gradient magnitude in gray values
+	 * @param high upper threshold of the gradient magnitude in gray values
+	 * @param out output image of the same size: edge pixels are 255, all others 0
+	 */
+	public static void canny(GrayU8 in, double sigma, float low, float high, GrayU8 out) {
+		suppressNonMaxima(in, GaussFilter.prepareGaussFilter(GaussFilter.defaultSize(sigma), sigma), low, high, out);
+		hysteresis(out);
+	}
+
+	/**
+	 * Classifies all pixels into strong (magnitude >= high), weak (magnitude >= low), and no edge pixels.
+	 * Only local maxima of the gradient magnitude in gradient direction are edge pixels.
+	 */
+	private static void suppressNonMaxima(GrayU8 in, float[] filter, float low, float high, GrayU8 out) {
+		final int width = in.m_width;
+		final int height = in.m_height;
+		final int filterHalf = filter.length/2;
+		final int[] kernel = Gradient.Scharr;
+
+		// column index of each padded position of a filtered row
+		final int[] columns = new int[width + 2*filterHalf];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = Mode.index(i - filterHalf, width);
+		}
+
+		Parallel.For(0, height, BandHeight, 1, y0 -> {
+			final int y1 = Math.min(y0 + BandHeight, height);
+			final float[] vertical = new float[width];
+			final float[] padded = new float[columns.length];
+			int[] s0 = new int[width + 2], s1 = new int[width + 2], s2 = new int[width + 2];	// ring of smoothed rows
+			Gradient.Row g0 = new Gradient.Row(width), g1 = new Gradient.Row(width), g2 = new Gradient.Row(width);	// ring of gradient rows
+
+			// gradient rows y0-1 and y0
+			smoothRow(in, y0 - 2, filter, columns, vertical, padded, s0);
+			smoothRow(in, y0 - 1, filter, columns, vertical, padded, s1);
+			smoothRow(in, y0, filter, columns, vertical, padded, s2);
+			Gradient.computeRow(s0, s1, s2, kernel, g0);
+			int[] t = s0; s0 = s1; s1 = s2; s2 = t;
+			smoothRow(in, y0 + 1, filter, columns, vertical, padded, s2);
+			Gradient.computeRow(s0, s1, s2, kernel, g1);
+
+			for (int y = y0; y < y1; y++) {
+				// gradient row y+1
+				t = s0; s0 = s1; s1 = s2; s2 = t;
+				smoothRow(in, y + 2, filter, columns, vertical, padded, s2);
+				Gradient.computeRow(s0, s1, s2, kernel, g2);
+
+				classifyRow(g0, g1, g2, low, high, out, y);
+
+				final Gradient.Row g = g0; g0 = g1; g1 = g2; g2 = g;
+			}
+		});
+	}
+
+	/**
+	 * Gauss filters row v and stores it padded by one pixel
+	 * @param v row index, is mapped into the image by the border mode
+	 * @param vertical temporary buffer of length width
+	 * @param padded temporary buffer of length width + filter.length - 1
+	 * @param out output of length width + 2
+	 */
+	private static void smoothRow(GrayU8 in, int v, float[] filter, int[] columns, float[] vertical, float[] padded, int[] out) {
+		final int width = in.m_width;
+		final int height = in.m_height;
+		final int filterHalf = filter.length/2;
+		final byte[] data = in.m_data;
+
+		// vertical pass
+		Arrays.fill(vertical, 0);
+		for (int j = 0; j < filter.length; j++) {
+			final int row = in.index(0, Mode.index(Mode.index(v, height) + j - filterHalf, height));
+			final float f = filter[j];
+
+			for (int x = 0; x < width; x++) {
+				vertical[x] += (data[row + x] & 0xFF)*f;
+			}
+		}
+
+		// horizontal pass
+		for (int i = 0; i < columns.length; i++) {
+			padded[i] = vertical[columns[i]];
+		}
+		for (int x = 0; x < width; x++) {
+			float sum = 0;
+
+			for (int i = 0; i < filter.length; i++) {
+				sum += padded[x + i]*filter[i];
+			}
+			out[x + 1] = Math.round(sum);
+		}
+		out[0] = out[1];
+		out[width + 1] = out[width];
+	}
+
+	/**
+	 * Non-maximum suppression and classification of row y
+	 * @param g0 gradient of row y-1
+	 * @param g1 gradient of row y
+	 * @param g2 gradient of row y+1
+	 */
+	private static void classifyRow(Gradient.Row g0, Gradient.Row g1, Gradient.Row g2, float low, float high, GrayU8 out, int y) {
+		final int width = out.m_width;
+		final byte[] data = out.m_data;
+		final int row = out.index(0, y);
+
+		for (int x = 0; x < width; x++) {
+			final float m = g1.m_mag[x];
+			byte c = 0;
+
+			if (m >= low) {
+				final float a, b;
+
+				// direction sector of 45 degrees: 0 horizontal, 1 diagonal, 2 vertical, 3 anti-diagonal
+				switch((((g1.m_dir[x] & 0xFF) + Gradient.Directions/16) >> 5) & 3) {
+				case 0:  a = mag(g1, x - 1); b = mag(g1, x + 1); break;
+				case 1:  a = mag(g0, x - 1); b = mag(g2, x + 1); break;
+				case 2:  a = g0.m_mag[x];    b = g2.m_mag[x]; break;
+				default: a = mag(g0, x + 1); b = mag(g2, x - 1); break;
+				}
+				// asymmetric test keeps one pixel of a plateau
+				if (m > a && m >= b) c = (m >= high) ? Strong : Weak;
+			}
+			data[row + x] = c;
+		}
+	}
+
+	private static float mag(Gradient.Row g, int x) {
+		return (x >= 0 && x < g.m_mag.length) ? g.m_mag[x] : 0;
+	}
+
+	/**
+	 * Promotes all weak pixels connected to a strong pixel and removes the remaining weak pixels.
+	 * Every band of rows runs a depth first search inside the band. Promotions in the first or last row of a band
+	 * might continue in the adjacent band, hence the bands are repeated until no border row changes.
+	 */
+	private static void hysteresis(GrayU8 img) {
+		final int width = img.m_width;
+		final int height = img.m_height;
+		final byte[] data = img.m_data;
+		boolean[] changed = { true };
+
+		while (changed[0]) {
+			changed[0] = false;
+			Parallel.For(0, height, BandHeight, 1, () -> new boolean[1], (y0, bandChanged) -> {
+				final int y1 = Math.min(y0 + BandHeight, height);
+				int[] stack = new int[64];
+				int top = 0;
+
+				for (int y = y0; y < y1; y++) {
+					for (int x = 0; x < width; x++) {
+						final int i = img.index(x, y);
+
+						if (data[i] == Weak && hasStrongNeighbor(img, x, y)) {
+							data[i] = Strong;
+							if (top == stack.length) stack = Arrays.copyOf(stack, 2*top);
+							stack[top++] = y*width + x;
+						}
+
+						// depth first search inside the band
+						while (top > 0) {
+							final int p = stack[--top];
+							final int px = p%width, py = p/width;
+
+							if (py == y0 || py == y1 - 1) bandChanged[0] = true;
+							for (int v = Math.max(py - 1, y0); v <= Math.min(py + 1, y1 - 1); v++) {
+								for (int u = Math.max(px - 1, 0); u <= Math.min(px + 1, width - 1); u++) {
+									final int j = img.index(u, v);
+
+									if (data[j] == Weak) {
+										data[j] = Strong;
+										if (top == stack.length) stack = Arrays.copyOf(stack, 2*top);
+										stack[top++] = v*width + u;
+									}
+								}
+							}
+						}
+					}
+				}
+			}, bandChanged -> changed[0] |= bandChanged[0]);
+		}
+
+		// remove remaining weak pixels
+		Parallel.For(0, height, y -> {
+			final int row = img.index(0, y);
+
+			for (int x = 0; x < width; x++) {
+				if (data[row + x] == Weak) data[row + x] = 0;
+			}
+		});
+	}
+
+	private static boolean hasStrongNeighbor(GrayU8 img, int x, int y) {
+		for (int v = Math.max(y - 1, 0); v <= Math.min(y + 1, img.m_height - 1); v++) {
+			for (int u = Math.max(x - 1, 0); u <= Math.min(x + 1, img.m_width - 1); u++) {
+				if (img.m_data[img.index(u, v)] == Strong) return true;
+			}
+		}
+		return false;
+	}
+}
@@ -6,6 +6,7 @@ import java.util.List;
 
 import imageprocessing.colors.GrayscaleImage;
 import imageprocessing.filter.MedianFilter;
+import imageprocessing.planar.GrayF32;
 import main.Picsi;
 
 import org.eclipse.swt.SWT;
@@ -86,36 +87,33 @@ public class CornerDetection implements IImageProcessor {
 		final float[] hd = { -0.453014f, 0, 0.453014f }; // derivative filter
 		final float[] hb = { 1.f/64, 6.f/64, 15.f/64, 20.f/64, 15.f/64, 6.f/64, 1.f/64 }; // Gauss filter
 
-		final float[][] inDataF = new float[inData.height][inData.width];
-		final float[][] A = new float[inData.height][inData.width];
-		final float[][] B = new float[inData.height][inData.width];
-		final float[][] C = new float[inData.height][inData.width];
-
-		// copy inData to float array
-		Parallel.For(0, inData.height, v -> {
-			for (int u=0; u < inData.width; u++) {
-				inDataF[v][u] = inData.getPixel(u, v);
-			}
-		});
+		// copy inData to float image
+		final GrayF32 inDataF = GrayF32.from(inData);
+		final GrayF32 A = new GrayF32(inData.width, inData.height);
+		final GrayF32 B = new GrayF32(inData.width, inData.height);
+		final GrayF32 C = new GrayF32(inData.width, inData.height);
 
 		// pre-filtering
 		convolveXY(inDataF, hp, hp);
 
 		// TODO: compute derivatives
-		final float[][] xDerrivative = new float[inData.height][inData.width];
-		final float[][] yDerrivative = new float[inData.height][inData.width];
+		final GrayF32 xDerrivative = new GrayF32(inData.width, inData.height);
+		final GrayF32 yDerrivative = new GrayF32(inData.width, inData.height);
 
 		convolveX(inDataF, hd, xDerrivative);
 		convolveY(inDataF, hd, yDerrivative);
 
 		// TODO: build Ix^2, IxIy, Iy^2 (local structure matrix)
-		for(int x = 0; x < inData.width; x++) {
-			for(int y = 0; y < inData.height; y++) {
-				A[y][x] = xDerrivative[y][x] * xDerrivative[y][x];
-				B[y][x] = yDerrivative[y][x] * yDerrivative[y][x];
-				C[y][x] = xDerrivative[y][x] * yDerrivative[y][x];
+		final float[] dx = xDerrivative.m_data, dy = yDerrivative.m_data;
+		Parallel.For(0, inData.height, y -> {
+			final int end = A.index(inData.width, y);
+
+			for(int i = A.index(0, y); i < end; i++) {
+				A.m_data[i] = dx[i] * dx[i];
+				B.m_data[i] = dy[i] * dy[i];
+				C.m_data[i] = dx[i] * dy[i];
 			}
-		}
+		});
 
 		// TODO: Gaussian filtering of Ix^2, Iy^2, IxIy
 		convolveXY(A, hb, hb);
@@ -123,15 +121,18 @@ public class CornerDetection implements IImageProcessor {
 		convolveXY(C, hb, hb);
 
 		// TODO: compute CRF (and Eigenvalues)
-		float[][] q = new float[inData.height][inData.width];
-		for(int x = 0; x < inData.width; x++) {
-			for(int y = 0; y < inData.height; y++) {
-				final float a = A[y][x];
-				final float b = B[y][x];
-				final float c = C[y][x];
-				q[y][x] = (a * b - c * c) - alpha * ((a + b) * (a + b));
+		final float alpha_ = alpha;
+		final GrayF32 q = new GrayF32(inData.width, inData.height);
+		Parallel.For(0, inData.height, y -> {
+			final int end = q.index(inData.width, y);
+
+			for(int i = q.index(0, y); i < end; i++) {
+				final float a = A.m_data[i];
+				final float b = B.m_data[i];
+				final float c = C.m_data[i];
+				q.m_data[i] = (a * b - c * c) - alpha_ * ((a + b) * (a + b));
 			}
-		}
+		});
 
 		// collect corner points in parallel
 		final float th = threshold;
@@ -144,9 +145,11 @@ public class CornerDetection implements IImageProcessor {
 			// loop body
 			(v, list) -> {
 				for (int u=0; u < outData.width; u++) {
-					if (q[v][u] > th && isLocalMax(q, u, v)) {
+					final float qc = q.get(u, v);
+
+					if (qc > th && isLocalMax(q, u, v)) {
 						// add corner
-						list.add(new Corner(u, v, q[v][u]));
+						list.add(new Corner(u, v, qc));
 					}
 
 					// copy darker input image to output image
@@ -228,31 +231,34 @@ public class CornerDetection implements IImageProcessor {
 		});
 	}
 
-	private static boolean isLocalMax(float[][] q, int u, int v) {
-		float qc = q[v][u];
+	private static boolean isLocalMax(GrayF32 q, int u, int v) {
+		final float[] d = q.m_data;
+		final int i = q.index(u, v);
+		final int s = q.m_stride;
+		final float qc = d[i];
 
 		if (u > 0) {
 			if (v > 0) {
-				if (qc < q[v-1][u-1]) return false;
+				if (qc < d[i - s - 1]) return false;
 			}
-			if (qc < q[v][u-1]) return false;
-			if (v < q.length - 1) {
-				if (qc < q[v+1][u-1]) return false;
+			if (qc < d[i - 1]) return false;
+			if (v < q.m_height - 1) {
+				if (qc < d[i + s - 1]) return false;
 			}
 		}
 		if (v > 0) {
-			if (qc < q[v-1][u]) return false;
+			if (qc < d[i - s]) return false;
 		}
-		if (v < q.length - 1) {
-			if (qc < q[v+1][u]) return false;
+		if (v < q.m_height - 1) {
+			if (qc < d[i + s]) return false;
 		}
-		if (u < q[v].length - 1) {
+		if (u < q.m_width - 1) {
 			if (v > 0) {
-				if (qc < q[v-1][u+1]) return false;
+				if (qc < d[i - s + 1]) return false;
 			}
-			if (qc < q[v][u+1]) return false;
-			if (v < q.length - 1) {
-				if (qc < q[v+1][u+1]) return false;
+			if (qc < d[i + 1]) return false;
+			if (v < q.m_height - 1) {
+				if (qc < d[i + s + 1]) return false;
 			}
 		}
 		return true;
@@ -279,8 +285,8 @@ public class CornerDetection implements IImageProcessor {
 		return good;
 	}
 
-	private static void convolveXY(float[][] data, float[] filterX, float[] filterY) {
-		float[][] tmp = new float[data.length][data[0].length];
+	private static void convolveXY(GrayF32 data, float[] filterX, float[] filterY) {
+		GrayF32 tmp = new GrayF32(data.m_width, data.m_height);
 
 		// filter in x-direction
 		convolveX(data, filterX, tmp);
@@ -289,35 +295,40 @@ public class CornerDetection implements IImageProcessor {
 		convolveY(tmp, filterY, data);
 	}
 
-	private static void convolveX(float[][] data, float[] filterX, float[][] out) {
-		final int h = data.length;
-		final int w = data[0].length;
+	private static void convolveX(GrayF32 dataF, float[] filterX, GrayF32 outF) {
+		final int h = dataF.m_height;
+		final int w = dataF.m_width;
+		final float[] data = dataF.m_data;
+		final float[] out = outF.m_data;
 		final int fSizeX = filterX.length;
 		final int fSizeXD2 = fSizeX/2;
 		final int w1 = w - fSizeXD2;
 
 		// filter in x-direction
 		Parallel.For(0, h, v -> {
+			final int row = dataF.index(0, v);
+			final int outRow = outF.index(0, v);
+
 			// left border handling
 			for (int u=0; u < fSizeXD2; u++) {
 				float sum = 0;
 				int u0 = u - fSizeXD2;
 
 				for (int i=0; i < fSizeX; i++, u0++) {
-					if (u0 < 0) sum += data[v][-u0]*filterX[i];
-					else sum += data[v][u0]*filterX[i];
+					if (u0 < 0) sum += data[row - u0]*filterX[i];
+					else sum += data[row + u0]*filterX[i];
 				}
-				out[v][u] = sum;
+				out[outRow + u] = sum;
 			}
 			// middle part
 			for (int u=fSizeXD2; u < w1; u++) {
 				float sum = 0;
-				int u0 = u - fSizeXD2;
+				int u0 = row + u - fSizeXD2;
 
 				for (int i=0; i < fSizeX; i++, u0++) {
-					sum += data[v][u0]*filterX[i];
+					sum += data[u0]*filterX[i];
 				}
-				out[v][u] = sum;
+				out[outRow + u] = sum;
 			}
 			// right border handling
 			for (int u=w1; u < w; u++) {
@@ -325,57 +336,63 @@ public class CornerDetection implements IImageProcessor {
 				int u0 = u - fSizeXD2;
 
 				for (int i=0; i < fSizeX; i++, u0++) {
-					if (u0 >= w) sum += data[v][2*w - u0 - 1]*filterX[i];
-					else sum += data[v][u0]*filterX[i];
+					if (u0 >= w) sum += data[row + 2*w - u0 - 1]*filterX[i];
+					else sum += data[row + u0]*filterX[i];
 				}
-				out[v][u] = sum;
+				out[outRow + u] = sum;
 			}
 		});
 	}
 
-	private static void convolveY(float[][] data, float[] filterY, float[][] out) {
-		final int h = data.length;
-		final int w = data[0].length;
+	private static void convolveY(GrayF32 dataF, float[] filterY, GrayF32 outF) {
+		final int h = dataF.m_height;
+		final int w = dataF.m_width;
+		final float[] data = dataF.m_data;
+		final float[] out = outF.m_data;
 		final int fSizeY = filterY.length;
 		final int fSizeYD2 = fSizeY/2;
 		final int h1 = h - fSizeYD2;
 
-		// filter in y-direction
-		Parallel.For(0, h, v -> {
-			if (v < fSizeYD2) {
-				// top border handling
-				for (int u=0; u < w; u++) {
-					float sum = 0;
-					int v0 = v - fSizeYD2;
-
-					for (int j=0; j < fSizeY; j++, v0++) {
-						if (v0 < 0) sum += data[-v0][u]*filterY[j];
-						else sum += data[v0][u]*filterY[j];
+		// filter in y-direction: tiles keep the rows touched by the filter in the cache
+		Parallel.forTiles(w, h, tile -> {
+			for (int v=tile.m_y0; v < tile.m_y1; v++) {
+				final int outRow = outF.index(0, v);
+
+				if (v < fSizeYD2) {
+					// top border handling
+					for (int u=tile.m_x0; u < tile.m_x1; u++) {
+						float sum = 0;
+						int v0 = v - fSizeYD2;
+
+						for (int j=0; j < fSizeY; j++, v0++) {
+							if (v0 < 0) sum += data[dataF.index(u, -v0)]*filterY[j];
+							else sum += data[dataF.index(u, v0)]*filterY[j];
+						}
+						out[outRow + u] = sum;
 					}
-					out[v][u] = sum;
-				}
-			} else if (v < h1) {
-				// middle part
-				for (int u=0; u < w; u++) {
-					float sum = 0;
-					int v0 = v - fSizeYD2;
-
-					for (int j=0; j < fSizeY; j++, v0++) {
-						sum += data[v0][u]*filterY[j];
+				} else if (v < h1) {
+					// middle part
+					for (int u=tile.m_x0; u < tile.m_x1; u++) {
+						float sum = 0;
+						int i = dataF.index(u, v - fSizeYD2);
+
+						for (int j=0; j < fSizeY; j++, i += dataF.m_stride) {
+							sum += data[i]*filterY[j];
+						}
+						out[outRow + u] = sum;
 					}
-					out[v][u] = sum;
-				}
-			} else {
-				// bottom border handling
-				for (int u=0; u < w; u++) {
-					float sum = 0;
-					int v0 = v - fSizeYD2;
-
-					for (int j=0; j < fSizeY; j++, v0++) {
-						if (v0 >= h) sum += data[2*h - v0 - 1][u]*filterY[j];
-						else sum += data[v0][u]*filterY[j];
+				} else {
+					// bottom border handling
+					for (int u=tile.m_x0; u < tile.m_x1; u++) {
+						float sum = 0;
+						int v0 = v - fSizeYD2;
+
+						for (int j=0; j < fSizeY; j++, v0++) {
+							if (v0 >= h) sum += data[dataF.index(u, 2*h - v0 - 1)]*filterY[j];
+							else sum += data[dataF.index(u, v0)]*filterY[j];
+						}
+						out[outRow + u] = sum;
 					}
-					out[v][u] = sum;
 				}
 			}
 		});
@@ -20,7 +20,7 @@ public class Cropping implements IImageProcessor {
 
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
-		final float zoom = Picsi.getTwinView().getZoomFactor(true);
+		final float zoom = Picsi.syncExec(() -> Picsi.getTwinView().getZoomFactor(true));
 		final int w = inData.width, h = inData.height;
 		
 		// let the user choose the ROI using a tracker
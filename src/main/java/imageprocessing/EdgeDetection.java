@@ -3,25 +3,18 @@ package imageprocessing;
 import gui.OptionPane;
 import imageprocessing.colors.ColorSpaces;
 import imageprocessing.colors.GrayscaleImage;
+import imageprocessing.planar.GrayU8;
 import main.Picsi;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.graphics.PaletteData;
-import org.eclipse.swt.graphics.RGB;
 
+/**
+ * Gradient based edge detection with the Scharr operator
+ */
 public class EdgeDetection implements IImageProcessor {
 
-    public float[][] hx = {
-            {-3 / 32f, 0 / 32f, 3 / 32f},
-            {-10 / 32f, 0 / 32f, 10 / 32f},
-            {-3 / 32f, 0 / 32f, 3 / 32f},
-    };
-
-    public float[][] hy = {
-            {-3 / 32f, -10 / 32f, -3 / 32f},
-            {0 / 32f, 0 / 32f, 0 / 32f},
-            {3 / 32f, 10 / 32f, 3 / 32f},
-    };
+    // fully saturated color of each gradient direction
+    private static final int[][] s_hueColors = createHueColors();
 
     @Override
     public boolean isEnabled(int imageType) {
@@ -31,59 +24,93 @@ public class EdgeDetection implements IImageProcessor {
     @Override
     public ImageData run(ImageData inData, int imageType) {
 
-        Object[] operations = {"Partielle Ableitungen", "Kantenstärke", "Colour by Angle"};
+        Object[] operations = {"Partielle Ableitungen", "Kantenstärke", "Colour by Angle", "Canny"};
         int mode = OptionPane.showOptionDialog("Offsetting", SWT.ICON_INFORMATION, operations, 1);
+        if (mode < 0) return null;
 
         if (imageType == Picsi.IMAGE_TYPE_RGB) {
             inData = GrayscaleImage.grayscale(inData);
         }
 
+        if (mode == 3) {
+            return canny(inData);
+        }
+
         ImageData out = mode == 2
                 ? ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_RGB)
                 : ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_GRAY);
 
-        for (int x = 0; x < inData.width; x++) {
-            for (int y = 0; y < inData.height; y++) {
-                out.setPixel(x, y, applySobelFilter(x, y, inData, mode, out.palette));
-            }
-        }
-
+        applySobelFilter(GrayU8.wrap(inData), mode, new PixelAccess(out));
         return out;
     }
 
-    private int applySobelFilter(int x, int y, ImageData inData, int mode, PaletteData palette) {
-        int gx = 0;
-        int gy = 0;
-
-        // Apply Sobel filter in the x and y directions
-        for (int i = -1; i <= 1; i++) {
-            for (int j = -1; j <= 1; j++) {
-                if (x > 0 && x < inData.width - 1 && y > 0 && y < inData.height - 1) {
-                    int pixelValue = inData.getPixel(x + i, y + j); // Get pixel intensity (grayscale)
+    /**
+     * Canny edge detection
+     * @param inData 8 bit gray image
+     * @return 8 bit gray image with edge pixels of value 255
+     */
+    private static ImageData canny(ImageData inData) {
+        Double sigma = OptionPane.showDoubleDialog("Sigma", 1.4);
+        if (sigma == null || sigma <= 0) return null;
+        Float low = OptionPane.showFloatDialog("Lower threshold", 10);
+        if (low == null) return null;
+        Float high = OptionPane.showFloatDialog("Upper threshold", 25);
+        if (high == null) return null;
+
+        ImageData out = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_GRAY);
+        Canny.canny(GrayU8.wrap(inData), sigma, low, high, GrayU8.wrap(out));
+        return out;
+    }
 
-                    gx += pixelValue * hx[i + 1][j + 1]; // Convolution with hx
-                    gy += pixelValue * hy[i + 1][j + 1]; // Convolution with hy
-                }
+    /**
+     * Computes the gradient of all rows and writes the visualization of the given mode
+     * @param in input image
+     * @param mode 0: sum of partial derivatives, 1: gradient magnitude, 2: colored by gradient direction
+     * @param out 8 bit gray image for mode 0 and 1, RGB image for mode 2
+     */
+    private static void applySobelFilter(GrayU8 in, int mode, PixelAccess out) {
+        final int[] kernel = Gradient.Scharr;
+        final float scale = Gradient.scale(kernel);
+        final byte[] data = out.m_data;
+
+        Gradient.run(in, kernel, BorderMode.Clamp, (y, row) -> {
+            int pos = out.offset(0, y);
+
+            switch (mode) {
+                case 0:
+                    for (int x = 0; x < out.m_width; x++) {
+                        data[pos + x] = (byte) ImageProcessing.clamp8((row.m_gx[x] + row.m_gy[x]) * scale + 128);
+                    }
+                    break;
+                case 1:
+                    for (int x = 0; x < out.m_width; x++) {
+                        data[pos + x] = (byte) ImageProcessing.clamp8(row.m_mag[x]);
+                    }
+                    break;
+                default:
+                    for (int x = 0; x < out.m_width; x++, pos += out.m_bytesPerPixel) {
+                        final int[] hue = s_hueColors[row.m_dir[x] & 0xFF];
+                        final int v = ImageProcessing.clamp8(row.m_mag[x]);
+
+                        out.setRGB(pos, (hue[0] * v + 127) / 255, (hue[1] * v + 127) / 255, (hue[2] * v + 127) / 255);
+                    }
+                    break;
             }
-        }
+        });
+    }
 
-        // Calculate the magnitude of the gradient
-        int gradientMagnitude = mode == 0 ? gx + gy + 128 : (int) Math.sqrt(gx * gx + gy * gy);
+    private static int[][] createHueColors() {
+        int[][] colors = new int[Gradient.Directions][3];
+        double[] hsv = {0, 1, 1};
+        double[] rgb = new double[3];
 
-        if (mode == 2) {
-            double angle = Math.atan((float) gx / gy);
-            double[] rgb = new double[3];
-            double[] hsv = {angle / Math.PI * 180, 1, gradientMagnitude};
+        for (int i = 0; i < colors.length; i++) {
+            hsv[0] = i / (double) Gradient.Directions;
             ColorSpaces.hsv2rgb(hsv, rgb);
-
-            return palette.getPixel(new RGB(
-                    ImageProcessing.clamp8(rgb[0]),
-                    ImageProcessing.clamp8(rgb[1]),
-                    ImageProcessing.clamp8(rgb[2])
-            ));
+            for (int c = 0; c < 3; c++) {
+                colors[i][c] = ImageProcessing.normalized2byte(rgb[c]);
+            }
         }
-
-        // Clamp the result to a valid grayscale value (0-255)
-        return ImageProcessing.clamp8(gradientMagnitude);
+        return colors;
     }
 }
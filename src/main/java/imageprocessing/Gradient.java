@@ -0,0 +1,173 @@
+package imageprocessing;
+
+import java.util.Arrays;
+
+import imageprocessing.planar.GrayU8;
+import utils.Parallel;
+
+/**
+ * Fused 3x3 gradient operator (Sobel or Scharr).
+ * Computes the partial derivatives, the gradient magnitude and the quantized gradient direction of a row in one sweep.
+ * The input rows are padded by one pixel on both sides, hence the inner loop doesn't need border checks.
+ */
+public class Gradient {
+	public static final int[] Sobel = { 1, 2, 1 };
+	public static final int[] Scharr = { 3, 10, 3 };
+	public static final int Directions = 256;	// number of direction bins over the full circle
+	private static final int BandHeight = 64;	// number of rows processed by one task
+	private static final byte[] s_dirLUT = createDirectionLUT();
+
+	/**
+	 * Gradient of one image row. The arrays are reused for the next row.
+	 */
+	public static class Row {
+		public final int[] m_gx, m_gy;	// unnormalized partial derivatives
+		public final float[] m_mag;		// gradient magnitude in gray values
+		public final byte[] m_dir;		// direction bin: 0 = positive x-axis, Directions/4 = positive y-axis (downwards)
+
+		public Row(int width) {
+			m_gx = new int[width];
+			m_gy = new int[width];
+			m_mag = new float[width];
+			m_dir = new byte[width];
+		}
+	}
+
+	public interface RowListener {
+		/**
+		 * Is called in parallel for all rows. The row object must not be used after returning.
+		 * @param y y-coordinate
+		 * @param row gradient of row y
+		 */
+		void gradientRow(int y, Row row);
+	}
+
+	/**
+	 * Factor converting the partial derivatives of the given kernel to gray values
+	 * @param kernel Sobel or Scharr
+	 * @return 1/(2*sum of kernel)
+	 */
+	public static float scale(int[] kernel) {
+		return 1f/(2*(kernel[0] + kernel[1] + kernel[2]));
+	}
+
+	/**
+	 * Returns the direction bin of a gradient
+	 * @param gx x-derivative in gray values
+	 * @param gy y-derivative in gray values
+	 * @return direction bin in [0, Directions)
+	 */
+	public static int direction(float gx, float gy) {
+		final int qx = Math.max(-128, Math.min(127, Math.round(gx)));
+		final int qy = Math.max(-128, Math.min(127, Math.round(gy)));
+
+		return s_dirLUT[((qy + 128) << 8) + qx + 128] & 0xFF;
+	}
+
+	/**
+	 * Computes the gradients of all rows of an image in parallel bands.
+	 * Every band keeps a ring of three padded input rows.
+	 * @param in input image
+	 * @param kernel Sobel or Scharr
+	 * @param mode border handling
+	 * @param listener receives the gradient rows
+	 */
+	public static void run(GrayU8 in, int[] kernel, BorderMode mode, RowListener listener) {
+		final int width = in.m_width;
+		final int height = in.m_height;
+
+		// column index of each padded position or -1 for zero
+		final int[] columns = new int[width + 2];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = mode.index(i - 1, width);
+		}
+
+		Parallel.For(0, height, BandHeight, 1, y0 -> {
+			final int y1 = Math.min(y0 + BandHeight, height);
+			final Row row = new Row(width);
+			int[] above = new int[width + 2];
+			int[] center = new int[width + 2];
+			int[] below = new int[width + 2];
+
+			loadRow(in, mode.index(y0 - 1, height), columns, above);
+			loadRow(in, y0, columns, center);
+			for (int y = y0; y < y1; y++) {
+				loadRow(in, mode.index(y + 1, height), columns, below);
+				computeRow(above, center, below, kernel, row);
+				listener.gradientRow(y, row);
+
+				// rotate ring
+				final int[] t = above; above = center; center = below; below = t;
+			}
+		});
+	}
+
+	/**
+	 * Copies image row v into a padded row buffer
+	 * @param v row index or -1 for a zero row
+	 * @param columns column index of each padded position or -1 for zero
+	 * @param buffer output of length width + 2
+	 */
+	private static void loadRow(GrayU8 in, int v, int[] columns, int[] buffer) {
+		if (v < 0) {
+			Arrays.fill(buffer, 0);
+		} else {
+			final byte[] data = in.m_data;
+			final int row = in.index(0, v);
+
+			for (int i = 0; i < columns.length; i++) {
+				final int x = columns[i];
+				buffer[i] = (x >= 0) ? data[row + x] & 0xFF : 0;
+			}
+		}
+	}
+
+	/**
+	 * Computes the gradient of the center row. The rows are padded by one pixel on both sides.
+	 * @param above padded row y-1
+	 * @param center padded row y
+	 * @param below padded row y+1
+	 * @param kernel Sobel or Scharr
+	 * @param out output row
+	 */
+	public static void computeRow(int[] above, int[] center, int[] below, int[] kernel, Row out) {
+		final int k0 = kernel[0], k1 = kernel[1];
+		final float scale = scale(kernel);
+		final int width = out.m_gx.length;
+
+		// sliding values: s = vertically smoothed column, d = vertical difference of a column
+		int sl = k0*(above[0] + below[0]) + k1*center[0];
+		int dl = below[0] - above[0];
+		int sc = k0*(above[1] + below[1]) + k1*center[1];
+		int dc = below[1] - above[1];
+
+		for (int x = 0; x < width; x++) {
+			final int i = x + 2;
+			final int sr = k0*(above[i] + below[i]) + k1*center[i];
+			final int dr = below[i] - above[i];
+			final int gx = sr - sl;
+			final int gy = k0*(dl + dr) + k1*dc;
+			final float fx = gx*scale, fy = gy*scale;
+
+			out.m_gx[x] = gx;
+			out.m_gy[x] = gy;
+			out.m_mag[x] = (float)Math.sqrt(fx*fx + fy*fy);
+			out.m_dir[x] = (byte)direction(fx, fy);
+
+			sl = sc; sc = sr;
+			dl = dc; dc = dr;
+		}
+	}
+
+	private static byte[] createDirectionLUT() {
+		byte[] lut = new byte[256*256];
+
+		for (int qy = -128; qy < 128; qy++) {
+			for (int qx = -128; qx < 128; qx++) {
+				final double a = Math.atan2(qy, qx)/(2*Math.PI)*Directions;
+				lut[((qy + 128) << 8) + qx + 128] = (byte)((int)Math.round(a) & (Directions - 1));
+			}
+		}
+		return lut;
+	}
+}
@@ -0,0 +1,238 @@
+package imageprocessing;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * Direct access to the raw pixel buffer of an ImageData object.
+ * Pixel rows start at v*m_bytesPerLine in m_data. Contrary to ImageData.getPixel/setPixel
+ * the depth is evaluated once per row and not once per pixel.
+ * All depths are supported. The depths 1, 8, 24, and 32 bits per pixel have fast paths,
+ * the others (2, 4, and 16 bits) are read and written by ImageData.getPixels/setPixels.
+ * <pre>
+ *  8 bit: one byte per pixel (gray value or palette index)
+ * 24 bit: three bytes per pixel, the pixel value is stored MSB first
+ * 32 bit: four bytes per pixel, the pixel value is stored MSB first
+ * </pre>
+ * For direct palettes with 8 bit channels, the byte offsets of the color channels inside a pixel are precomputed,
+ * e.g. m_data[offset(u, v) + m_redOffset] is the red value of pixel (u,v).
+ */
+public class PixelAccess {
+	public final ImageData m_imageData;
+	public final byte[] m_data;				// raw pixel buffer (shared with m_imageData)
+	public final int m_width, m_height;		// image size
+	public final int m_depth;				// bits per pixel
+	public final int m_bytesPerLine;		// row stride in bytes
+	public final int m_bytesPerPixel;		// 0 for depths < 8
+	public final int m_redOffset, m_greenOffset, m_blueOffset;	// byte offset of the channels inside a pixel or -1
+
+	/**
+	 * Creates a pixel accessor for the given image data. No pixel data is copied.
+	 * @param imageData image of any depth
+	 */
+	public PixelAccess(ImageData imageData) {
+		final int depth = imageData.depth;
+
+		m_imageData = imageData;
+		m_data = imageData.data;
+		m_width = imageData.width;
+		m_height = imageData.height;
+		m_depth = depth;
+		m_bytesPerLine = imageData.bytesPerLine;
+		m_bytesPerPixel = depth/8;
+
+		final PaletteData palette = imageData.palette;
+		if (palette.isDirect && depth >= 24) {
+			m_redOffset = channelOffset(palette.redMask);
+			m_greenOffset = channelOffset(palette.greenMask);
+			m_blueOffset = channelOffset(palette.blueMask);
+		} else {
+			m_redOffset = m_greenOffset = m_blueOffset = -1;
+		}
+	}
+
+	/**
+	 * Byte offset of an 8 bit channel inside a pixel, pixels are stored MSB first
+	 * @param mask channel mask
+	 * @return byte offset or -1 if the channel doesn't occupy exactly one byte
+	 */
+	private int channelOffset(int mask) {
+		for (int b = 0; b < m_bytesPerPixel; b++) {
+			final int shift = 8*(m_bytesPerPixel - 1 - b);
+			if (mask == 0xFF << shift) return b;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the color channels can be accessed by m_redOffset, m_greenOffset, and m_blueOffset
+	 */
+	public boolean hasByteChannels() {
+		return m_redOffset >= 0 && m_greenOffset >= 0 && m_blueOffset >= 0;
+	}
+
+	/**
+	 * Returns the position of pixel (u,v) in m_data
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return byte offset (depth 8, 24, or 32)
+	 */
+	public int offset(int u, int v) {
+		return v*m_bytesPerLine + u*m_bytesPerPixel;
+	}
+
+	/**
+	 * Returns the unsigned byte of an 8 bit image at position (u,v)
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return value in [0,255]
+	 */
+	public int get8(int u, int v) {
+		return m_data[v*m_bytesPerLine + u] & 0xFF;
+	}
+
+	/**
+	 * Sets the byte of an 8 bit image at position (u,v)
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @param val is truncated to 8 bits
+	 */
+	public void set8(int u, int v, int val) {
+		m_data[v*m_bytesPerLine + u] = (byte)val;
+	}
+
+	/**
+	 * Reads all pixel values of row v. The pixel values are the same as returned by ImageData.getPixel.
+	 * @param v y-coordinate
+	 * @param pixels output array of length >= m_width
+	 */
+	public void getRow(int v, int[] pixels) {
+		int pos = v*m_bytesPerLine;
+
+		switch(m_depth) {
+		case 1:
+			for (int u = 0; u < m_width; u++) {
+				pixels[u] = (m_data[pos + (u >> 3)] >> (7 - (u & 7))) & 1;
+			}
+			break;
+		case 8:
+			for (int u = 0; u < m_width; u++) {
+				pixels[u] = m_data[pos++] & 0xFF;
+			}
+			break;
+		case 24:
+			for (int u = 0; u < m_width; u++, pos += 3) {
+				pixels[u] = ((m_data[pos] & 0xFF) << 16) | ((m_data[pos + 1] & 0xFF) << 8) | (m_data[pos + 2] & 0xFF);
+			}
+			break;
+		case 32:
+			for (int u = 0; u < m_width; u++, pos += 4) {
+				pixels[u] = ((m_data[pos] & 0xFF) << 24) | ((m_data[pos + 1] & 0xFF) << 16) | ((m_data[pos + 2] & 0xFF) << 8) | (m_data[pos + 3] & 0xFF);
+			}
+			break;
+		default:
+			m_imageData.getPixels(0, v, m_width, pixels, 0);
+			break;
+		}
+	}
+
+	/**
+	 * Writes all pixel values of row v. The pixel values have the same meaning as in ImageData.setPixel.
+	 * @param v y-coordinate
+	 * @param pixels input array of length >= m_width
+	 */
+	public void setRow(int v, int[] pixels) {
+		int pos = v*m_bytesPerLine;
+
+		switch(m_depth) {
+		case 1:
+			for (int u = 0; u < m_width; u++) {
+				final int i = pos + (u >> 3);
+				final int mask = 1 << (7 - (u & 7));
+				if ((pixels[u] & 1) == 0) m_data[i] &= ~mask;
+				else m_data[i] |= mask;
+			}
+			break;
+		case 8:
+			for (int u = 0; u < m_width; u++) {
+				m_data[pos++] = (byte)pixels[u];
+			}
+			break;
+		case 24:
+			for (int u = 0; u < m_width; u++) {
+				final int p = pixels[u];
+				m_data[pos++] = (byte)(p >> 16);
+				m_data[pos++] = (byte)(p >> 8);
+				m_data[pos++] = (byte)p;
+			}
+			break;
+		case 32:
+			for (int u = 0; u < m_width; u++) {
+				final int p = pixels[u];
+				m_data[pos++] = (byte)(p >> 24);
+				m_data[pos++] = (byte)(p >> 16);
+				m_data[pos++] = (byte)(p >> 8);
+				m_data[pos++] = (byte)p;
+			}
+			break;
+		default:
+			m_imageData.setPixels(0, v, m_width, pixels, 0);
+			break;
+		}
+	}
+
+	/**
+	 * Writes the color (r,g,b) at the byte position pos of an image with byte channels
+	 * @param pos byte offset of the pixel, see offset(u, v)
+	 * @param r red [0,255]
+	 * @param g green [0,255]
+	 * @param b blue [0,255]
+	 */
+	public void setRGB(int pos, int r, int g, int b) {
+		m_data[pos + m_redOffset] = (byte)r;
+		m_data[pos + m_greenOffset] = (byte)g;
+		m_data[pos + m_blueOffset] = (byte)b;
+	}
+
+	/**
+	 * Reads the colors of row v into separate channel arrays. Works for all supported image types.
+	 * @param v y-coordinate
+	 * @param r output red channel of length >= m_width
+	 * @param g output green channel of length >= m_width
+	 * @param b output blue channel of length >= m_width
+	 * @param pixels temporary array of length >= m_width, only used for images without byte channels
+	 */
+	public void getRGBRow(int v, int[] r, int[] g, int[] b, int[] pixels) {
+		if (hasByteChannels()) {
+			int pos = v*m_bytesPerLine;
+
+			for (int u = 0; u < m_width; u++, pos += m_bytesPerPixel) {
+				r[u] = m_data[pos + m_redOffset] & 0xFF;
+				g[u] = m_data[pos + m_greenOffset] & 0xFF;
+				b[u] = m_data[pos + m_blueOffset] & 0xFF;
+			}
+		} else {
+			final PaletteData palette = m_imageData.palette;
+
+			getRow(v, pixels);
+			if (palette.isDirect) {
+				for (int u = 0; u < m_width; u++) {
+					RGB rgb = palette.getRGB(pixels[u]);
+					r[u] = rgb.red;
+					g[u] = rgb.green;
+					b[u] = rgb.blue;
+				}
+			} else {
+				final RGB[] colors = palette.colors;
+
+				for (int u = 0; u < m_width; u++) {
+					RGB rgb = colors[pixels[u]];
+					r[u] = rgb.red;
+					g[u] = rgb.green;
+					b[u] = rgb.blue;
+				}
+			}
+		}
+	}
+}
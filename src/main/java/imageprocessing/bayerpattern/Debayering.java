@@ -10,6 +10,7 @@ import org.eclipse.swt.graphics.RGB;
 import gui.OptionPane;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
+import imageprocessing.PixelAccess;
 
 /**
  * Debayering
@@ -46,17 +47,20 @@ public class Debayering implements IImageProcessor {
 	 */
 	private ImageData debayering1(ImageData inData) {
 		ImageData outData = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_RGB);
+		PixelAccess in = new PixelAccess(inData);
+		PixelAccess out = new PixelAccess(outData);
 
 		Parallel.For(0, outData.height, y -> {
+			int pos = out.offset(0, y);
 
-			for (int x=0; x < outData.width; x++) {
+			for (int x=0; x < outData.width; x++, pos += Bypp) {
 
 				int red = 0;
 				int green = 0;
 				int blue = 0;
 
 				// do interpolation
-				int pixelValue = inData.getPixel(x, y);
+				int pixelValue = in.get8(x, y);
 
 				// row % 2 == 0 && col % 2 == 0 --> Blue
 				// row % 2 == 0 && col % 2 == 1 --> Green
@@ -65,118 +69,118 @@ public class Debayering implements IImageProcessor {
 
 				if(y % 2 == 0) {								// even row
 					if(x % 2 == 0) {							// even column --> blue pixel
-						red = interpolateSquare(inData, x, y);
-						green = interpolateCross(inData, x, y);
+						red = interpolateSquare(in, x, y);
+						green = interpolateCross(in, x, y);
 						blue = pixelValue;
 					} else {									// odd column --> green pixel
-						red = interpolateTopAndBottom(inData, x, y);
+						red = interpolateTopAndBottom(in, x, y);
 						green = pixelValue;
-						blue = interpolateLeftAndRight(inData, x, y);
+						blue = interpolateLeftAndRight(in, x, y);
 					}
 				} else {										// odd row
 					if(x % 2 == 0) {							// even column --> green pixel
-						red = interpolateLeftAndRight(inData, x, y);
+						red = interpolateLeftAndRight(in, x, y);
 						green = pixelValue;
-						blue = interpolateTopAndBottom(inData, x, y);
+						blue = interpolateTopAndBottom(in, x, y);
 					} else {									// odd column --> red pixel
 						red = pixelValue;
-						green = interpolateCross(inData, x, y);
-						blue = interpolateSquare(inData, x, y);
+						green = interpolateCross(in, x, y);
+						blue = interpolateSquare(in, x, y);
 					}
 				}
 
-				outData.setPixel(x, y, outData.palette.getPixel(new RGB(red, green, blue)));
+				out.setRGB(pos, red, green, blue);
 			}
 		});
 		return outData;
 	}
 
-	private int interpolateLeftAndRight(ImageData inData, int x, int y) {
+	private int interpolateLeftAndRight(PixelAccess in, int x, int y) {
 
 		int sum = 0;
 		int count = 0;
 
 		if(x > 0) {									// left
-			sum += inData.getPixel(x - 1, y);
+			sum += in.get8(x - 1, y);
 			count ++;
 		}
 
-		if(x < inData.width - 1) {					// right
-			sum += inData.getPixel(x + 1, y);
+		if(x < in.m_width - 1) {					// right
+			sum += in.get8(x + 1, y);
 			count ++;
 		}
 
 		return count > 0 ? sum / count : 0;
 	}
 
-	private int interpolateTopAndBottom(ImageData inData, int x, int y) {
+	private int interpolateTopAndBottom(PixelAccess in, int x, int y) {
 
 		int sum = 0;
 		int count = 0;
 
 		if (y > 0) {								// top
-			sum += inData.getPixel(x, y - 1);
+			sum += in.get8(x, y - 1);
 			count ++;
 		}
 
-		if (y < inData.height - 1) {				// bottom
-			sum += inData.getPixel(x, y + 1);
+		if (y < in.m_height - 1) {				// bottom
+			sum += in.get8(x, y + 1);
 			count ++;
 		}
 
 		return count > 0 ? sum / count : 0;
 	}
 
-	private int interpolateCross(ImageData inData, int x, int y) {
+	private int interpolateCross(PixelAccess in, int x, int y) {
 
 		int sum = 0;
 		int count = 0;
 
 		if (y > 0) {								// top
-			sum += inData.getPixel(x, y - 1);
+			sum += in.get8(x, y - 1);
 			count ++;
 		}
 
-		if(y < inData.height - 1) {					// bottom
-			sum += inData.getPixel(x, y + 1);
+		if(y < in.m_height - 1) {					// bottom
+			sum += in.get8(x, y + 1);
 			count ++;
 		}
 
 		if(x > 0) {									// left
-			sum += inData.getPixel(x - 1, y);
+			sum += in.get8(x - 1, y);
 			count ++;
 		}
 
-		if (x < inData.width - 1) {					// right
-			sum = inData.getPixel(x + 1, y);
+		if (x < in.m_width - 1) {					// right
+			sum = in.get8(x + 1, y);
 			count ++;
 		}
 
 		return count > 0 ? sum / count : 0;
 	}
 
-	private int interpolateSquare(ImageData inData, int x, int y) {
+	private int interpolateSquare(PixelAccess in, int x, int y) {
 
 		int sum = 0;
 		int count = 0;
 
 		if(x > 0 && y > 0) {									// top left
-			sum += inData.getPixel(x - 1, y - 1);
+			sum += in.get8(x - 1, y - 1);
 			count ++;
 		}
 
-		if (x < inData.width - 1 && y > 0) {					// top right
-			sum += inData.getPixel(x + 1, y - 1);
+		if (x < in.m_width - 1 && y > 0) {					// top right
+			sum += in.get8(x + 1, y - 1);
 			count ++;
 		}
 
-		if (x > 0 && y < inData.height - 1) {					// bottom left
-			sum += inData.getPixel(x - 1, y + 1);
+		if (x > 0 && y < in.m_height - 1) {					// bottom left
+			sum += in.get8(x - 1, y + 1);
 			count ++;
 		}
 
-		if (x < inData.width - 1 && y < inData.height - 1) {	// bottom right
-			sum += inData.getPixel(x + 1, y + 1);
+		if (x < in.m_width - 1 && y < in.m_height - 1) {	// bottom right
+			sum += in.get8(x + 1, y + 1);
 			count ++;
 		}
 
@@ -2,9 +2,9 @@ package imageprocessing.colors;
 
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
+import imageprocessing.PixelAccess;
 import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.graphics.RGB;
 import utils.Parallel;
 
 public class GrayscaleImage implements IImageProcessor {
@@ -22,13 +22,19 @@ public class GrayscaleImage implements IImageProcessor {
     public static ImageData grayscale(ImageData image) {
         ImageData outData = ImageProcessing.createImage(image.width, image.height, Picsi.IMAGE_TYPE_GRAY);
 
+        PixelAccess in = new PixelAccess(image);
+        PixelAccess out = new PixelAccess(outData);
         int wR = 3, wG = 6, wB = 1;
 
         Parallel.For(0, image.height, v -> {
-            for (int u=0; u < image.width; u++) {
-                RGB rgb = image.palette.getRGB(image.getPixel(u,v));
-                int value = (wR * rgb.red + wG * rgb.green + wB * rgb.blue) / 10;
-                outData.setPixel(u, v, value);
+            final int w = image.width;
+            final int[] r = new int[w], g = new int[w], b = new int[w], pixels = new int[w];
+            final int pos = v*out.m_bytesPerLine;
+
+            in.getRGBRow(v, r, g, b, pixels);
+            for (int u=0; u < w; u++) {
+                int value = (wR * r[u] + wG * g[u] + wB * b[u]) / 10;
+                out.m_data[pos + u] = (byte)value;
             }
         });
 
@@ -1,14 +1,28 @@
 package imageprocessing.filter;
 
 import gui.OptionPane;
+import imageprocessing.BorderMode;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
+import imageprocessing.planar.GrayF32;
+import imageprocessing.planar.GrayU8;
 import main.Picsi;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.ImageData;
+import utils.Parallel;
 
+/**
+ * Separable Gauss filter: a horizontal pass with a 1D kernel followed by a vertical pass with the same kernel.
+ * The work per pixel is O(size) instead of O(size^2).
+ * Large kernels are approximated by the recursive (IIR) filter of Young and van Vliet,
+ * whose work per pixel doesn't depend on sigma.
+ */
 public class GaussFilter implements IImageProcessor {
 
-    private float[][] gaussFilter;
+    // smallest filter size where the recursive filter is faster than the FIR filter (measured on 12 MP)
+    public static final int IIR_MIN_SIZE = 15;
+    // width of the column bands processed by one task in the vertical recursive pass
+    private static final int BAND_WIDTH = 64;
 
     @Override
     public boolean isEnabled(int imageType) {
@@ -18,66 +32,309 @@ public class GaussFilter implements IImageProcessor {
     @Override
     public ImageData run(ImageData inData, int imageType) {
 
-        int size = OptionPane.showIntegerDialog("Filter Size [Default: 5]", 5);
-        int sigma = OptionPane.showIntegerDialog("Sigma [Default: 1]", 1);
-        gaussFilter = prepareGaussFilter(size, sigma);
-        ImageData out = new ImageData(inData.width, inData.height, 8, inData.palette);
+        Double sigma = OptionPane.showDoubleDialog("Sigma [Default: 1]", 1);
+        if (sigma == null || sigma <= 0) return null;
 
-        for (int x = 0; x < inData.width; x++) {
-            for (int y = 0; y < inData.height; y++) {
-                out.setPixel(x, y, applyGaussFilter(x, y, inData));
-            }
+        Integer size = OptionPane.showIntegerDialog("Filter Size", defaultSize(sigma));
+        if (size == null || size <= 0) return null;
+
+        Object[] borderModes = BorderMode.values();
+        int mode = OptionPane.showOptionDialog("Border Handling", SWT.ICON_QUESTION, borderModes, BorderMode.Mirror.ordinal());
+        if (mode < 0) return null;
+
+        return filter(inData, size | 1, sigma, BorderMode.values()[mode]);
+    }
+
+    /**
+     * Filters an 8 bit gray image with a Gauss kernel. Uses the recursive filter for large kernels.
+     * @param inData 8 bit image
+     * @param size odd filter size
+     * @param sigma standard deviation
+     * @param mode border handling
+     * @return new 8 bit image
+     */
+    public static ImageData filter(ImageData inData, int size, double sigma, BorderMode mode) {
+        // the recursive filter approximates the untruncated kernel and is only accurate for sigma >= 0.5
+        if (size >= IIR_MIN_SIZE && size >= defaultSize(sigma) && sigma >= 0.5) {
+            return filterRecursive(inData, sigma, mode);
+        } else {
+            return filter(inData, prepareGaussFilter(size, sigma), mode);
         }
+    }
 
-        return out;
+    /**
+     * Returns the smallest odd filter size covering +-3 sigma
+     * @param sigma standard deviation
+     * @return filter size
+     */
+    public static int defaultSize(double sigma) {
+        return 2 * (int) Math.ceil(3 * sigma) + 1;
     }
 
-    private static float[][] prepareGaussFilter(int size, int sigma) {
+    /**
+     * Creates a normalized 1D Gauss kernel
+     * @param size odd filter size
+     * @param sigma standard deviation
+     * @return kernel with sum 1
+     */
+    public static float[] prepareGaussFilter(int size, double sigma) {
 
-        float[][] filter = new float[size][size];
+        float[] filter = new float[size];
 
         int center = size / 2;
-        float sigmaSquared = sigma * sigma;
-        double normalizationFactor = 1 / (2 * Math.PI * sigmaSquared);
-        float sum = 0;
+        double twoSigmaSquared = 2 * sigma * sigma;
+        double sum = 0;
 
         // calculate filter values
         for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                int x = i - center;
-                int y = j - center;
-                filter[i][j] = (float) (normalizationFactor * Math.exp(-(x * x + y * y) / sigmaSquared));
-                sum += filter[i][j];
-            }
+            int x = i - center;
+            double value = Math.exp(-(x * x) / twoSigmaSquared);
+            filter[i] = (float) value;
+            sum += value;
         }
 
         // normalization
         for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                filter[i][j] /= sum;
-            }
+            filter[i] /= sum;
         }
 
         return filter;
     }
 
-    private int applyGaussFilter(int x, int y, ImageData inData) {
+    /**
+     * Filters an 8 bit gray image with the separable kernel filter x filter
+     * @param inData 8 bit image
+     * @param filter odd sized 1D kernel
+     * @param mode border handling
+     * @return new 8 bit image
+     */
+    public static ImageData filter(ImageData inData, float[] filter, BorderMode mode) {
+        GrayU8 in = GrayU8.wrap(inData);
+        ImageData outData = new ImageData(inData.width, inData.height, 8, inData.palette);
+        GrayU8 out = GrayU8.wrap(outData);
+        GrayF32 tmp = new GrayF32(in.m_width, in.m_height);
+
+        filterRows(in, filter, mode, tmp);
+        filterColumns(tmp, filter, mode, out);
+        return outData;
+    }
+
+    /**
+     * Filters an 8 bit gray image with the recursive Gauss filter of Young and van Vliet.
+     * The work per pixel is independent of sigma.
+     * @param inData 8 bit image
+     * @param sigma standard deviation >= 0.5
+     * @param mode border handling
+     * @return new 8 bit image
+     */
+    public static ImageData filterRecursive(ImageData inData, double sigma, BorderMode mode) {
+        GrayU8 in = GrayU8.wrap(inData);
+        ImageData outData = new ImageData(inData.width, inData.height, 8, inData.palette);
+        GrayU8 out = GrayU8.wrap(outData);
+        GrayF32 tmp = new GrayF32(in.m_width, in.m_height);
+        double[] coeffs = recursiveCoefficients(sigma);
+        int pad = defaultSize(sigma) / 2;
+
+        recursiveRows(in, coeffs, pad, mode, tmp);
+        recursiveColumns(tmp, coeffs, pad, mode, out);
+        return outData;
+    }
+
+    /**
+     * Computes the coefficients of the recursive filter (Young, van Vliet: Recursive implementation
+     * of the Gaussian filter, Signal Processing 44, 1995)
+     * @param sigma standard deviation >= 0.5
+     * @return {B, b1/b0, b2/b0, b3/b0}
+     */
+    private static double[] recursiveCoefficients(double sigma) {
+        final double q = (sigma >= 2.5) ? 0.98711 * sigma - 0.96330 : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+        final double q2 = q * q, q3 = q2 * q;
+        final double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+        final double b1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+        final double b2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+        final double b3 = 0.422205 * q3 / b0;
+
+        return new double[] { 1 - (b1 + b2 + b3), b1, b2, b3 };
+    }
+
+    /**
+     * Applies the causal and the anti-causal recursion to line in place.
+     * The states are initialized with the steady state response of the border values.
+     */
+    private static void recursiveLine(double[] line, double[] coeffs) {
+        final double B = coeffs[0], b1 = coeffs[1], b2 = coeffs[2], b3 = coeffs[3];
+        final int n = line.length;
+
+        // causal pass
+        double w1 = line[0], w2 = w1, w3 = w1;
+        for (int i = 0; i < n; i++) {
+            final double w = B * line[i] + b1 * w1 + b2 * w2 + b3 * w3;
+            line[i] = w;
+            w3 = w2; w2 = w1; w1 = w;
+        }
+
+        // anti-causal pass
+        w1 = line[n - 1]; w2 = w1; w3 = w1;
+        for (int i = n - 1; i >= 0; i--) {
+            final double w = B * line[i] + b1 * w1 + b2 * w2 + b3 * w3;
+            line[i] = w;
+            w3 = w2; w2 = w1; w1 = w;
+        }
+    }
+
+    /**
+     * Horizontal recursive pass: every row is padded by pad pixels on both sides according to the border mode
+     */
+    private static void recursiveRows(GrayU8 in, double[] coeffs, int pad, BorderMode mode, GrayF32 out) {
+        final int width = in.m_width;
+
+        // column index of each padded position or -1 for zero
+        final int[] columns = new int[width + 2 * pad];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = mode.index(i - pad, width);
+        }
+
+        Parallel.For(0, in.m_height, y -> {
+            final double[] line = new double[columns.length];
+            final int inRow = in.index(0, y);
+            final int outRow = out.index(0, y);
+
+            for (int i = 0; i < columns.length; i++) {
+                final int x = columns[i];
+                if (x >= 0) line[i] = in.m_data[inRow + x] & 0xFF;
+            }
+            recursiveLine(line, coeffs);
+            for (int x = 0; x < width; x++) {
+                out.m_data[outRow + x] = (float) line[pad + x];
+            }
+        });
+    }
+
+    /**
+     * Vertical recursive pass: the columns are processed in bands, and the recursion runs over
+     * whole band rows, hence all memory accesses are sequential
+     */
+    private static void recursiveColumns(GrayF32 in, double[] coeffs, int pad, BorderMode mode, GrayU8 out) {
+        final double B = coeffs[0], b1 = coeffs[1], b2 = coeffs[2], b3 = coeffs[3];
+        final int width = in.m_width;
+        final int height = in.m_height;
+        final int n = height + 2 * pad;
 
-        int filterSize = gaussFilter.length;
-        int filterHalf = filterSize / 2;
-        float value = 0;
+        // row index of each padded position or -1 for zero
+        final int[] rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = mode.index(i - pad, height);
+        }
 
-        for (int filterX = 0; filterX < filterSize; filterX++) {
-            for (int filterY = 0; filterY < filterSize; filterY++) {
-                int imageX = x + filterX - filterHalf;
-                int imageY = y + filterY - filterHalf;
+        Parallel.For(0, width, BAND_WIDTH, 1, x0 -> {
+            final int bw = Math.min(BAND_WIDTH, width - x0);
+            final double[] band = new double[n * bw];
 
-                if (imageX >= 0 && imageX < inData.width && imageY >= 0 && imageY < inData.height) {
-                    value += inData.getPixel(imageX, imageY) * gaussFilter[filterX][filterY];
+            // copy padded band
+            for (int i = 0; i < n; i++) {
+                if (rows[i] >= 0) {
+                    final int inRow = in.index(x0, rows[i]);
+
+                    for (int x = 0; x < bw; x++) {
+                        band[i * bw + x] = in.m_data[inRow + x];
+                    }
+                }
+            }
+
+            // causal pass, the state of row i-1, i-2, i-3 is at band[(i-k)*bw + x], the first row is its own steady state
+            for (int i = 0; i < n; i++) {
+                final int r0 = i * bw;
+                final int r1 = (i > 0) ? r0 - bw : r0, r2 = (i > 1) ? r0 - 2 * bw : r1, r3 = (i > 2) ? r0 - 3 * bw : r2;
+
+                for (int x = 0; x < bw; x++) {
+                    band[r0 + x] = B * band[r0 + x] + b1 * band[r1 + x] + b2 * band[r2 + x] + b3 * band[r3 + x];
+                }
+            }
+
+            // anti-causal pass
+            for (int i = n - 1; i >= 0; i--) {
+                final int r0 = i * bw;
+                final int r1 = (i < n - 1) ? r0 + bw : r0, r2 = (i < n - 2) ? r0 + 2 * bw : r1, r3 = (i < n - 3) ? r0 + 3 * bw : r2;
+
+                for (int x = 0; x < bw; x++) {
+                    band[r0 + x] = B * band[r0 + x] + b1 * band[r1 + x] + b2 * band[r2 + x] + b3 * band[r3 + x];
+                }
+            }
+
+            for (int y = 0; y < height; y++) {
+                final int outRow = out.index(x0, y);
+                final int r0 = (pad + y) * bw;
+
+                for (int x = 0; x < bw; x++) {
+                    out.m_data[outRow + x] = (byte) ImageProcessing.clamp8(band[r0 + x]);
                 }
             }
+        });
+    }
+
+    /**
+     * Horizontal pass: every row is copied into a padded buffer, hence the inner loop doesn't need border checks
+     */
+    private static void filterRows(GrayU8 in, float[] filter, BorderMode mode, GrayF32 out) {
+        final int width = in.m_width;
+        final int filterSize = filter.length;
+        final int filterHalf = filterSize / 2;
+
+        // column index of each padded position or -1 for zero
+        final int[] columns = new int[width + 2 * filterHalf];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = mode.index(i - filterHalf, width);
         }
 
-        return ImageProcessing.clamp8(value);
+        Parallel.For(0, in.m_height, y -> {
+            final float[] padded = new float[columns.length];
+            final int inRow = in.index(0, y);
+            final int outRow = out.index(0, y);
+
+            for (int i = 0; i < columns.length; i++) {
+                final int x = columns[i];
+                if (x >= 0) padded[i] = in.m_data[inRow + x] & 0xFF;
+            }
+            for (int x = 0; x < width; x++) {
+                float value = 0;
+
+                for (int i = 0; i < filterSize; i++) {
+                    value += padded[x + i] * filter[i];
+                }
+                out.m_data[outRow + x] = value;
+            }
+        });
+    }
+
+    /**
+     * Vertical pass: output row y is accumulated row by row, hence all memory accesses are sequential
+     */
+    private static void filterColumns(GrayF32 in, float[] filter, BorderMode mode, GrayU8 out) {
+        final int width = in.m_width;
+        final int height = in.m_height;
+        final int filterSize = filter.length;
+        final int filterHalf = filterSize / 2;
+
+        Parallel.For(0, height, y -> {
+            final float[] sum = new float[width];
+
+            for (int i = 0; i < filterSize; i++) {
+                final int imageY = mode.index(y + i - filterHalf, height);
+
+                if (imageY >= 0) {
+                    final float f = filter[i];
+                    final int inRow = in.index(0, imageY);
+
+                    for (int x = 0; x < width; x++) {
+                        sum[x] += in.m_data[inRow + x] * f;
+                    }
+                }
+            }
+
+            final int outRow = out.index(0, y);
+            for (int x = 0; x < width; x++) {
+                out.m_data[outRow + x] = (byte) ImageProcessing.clamp8(sum[x]);
+            }
+        });
     }
 }
@@ -0,0 +1,61 @@
+package imageprocessing.filter;
+
+import imageprocessing.BorderMode;
+import org.eclipse.swt.graphics.ImageData;
+import utils.Parallel;
+
+/**
+ * Gaussian image pyramid of an 8 bit gray image.
+ * Level 0 is the input image, every further level is low-pass filtered and has half the width and height.
+ */
+public class GaussPyramid {
+
+    private static final double SIGMA = 1;
+
+    private final ImageData[] m_levels;
+
+    /**
+     * Creates the pyramid
+     * @param inData 8 bit gray image
+     * @param levels number of levels including the input image
+     */
+    public GaussPyramid(ImageData inData, int levels) {
+        m_levels = new ImageData[levels];
+        m_levels[0] = inData;
+        for (int l = 1; l < levels; l++) {
+            m_levels[l] = reduce(m_levels[l - 1]);
+        }
+    }
+
+    public int getLevels() {
+        return m_levels.length;
+    }
+
+    /**
+     * @param level 0 is the input image
+     * @return image of the given level
+     */
+    public ImageData getLevel(int level) {
+        return m_levels[level];
+    }
+
+    /**
+     * Low-pass filters an image and removes every second row and column
+     * @param inData 8 bit gray image
+     * @return image of half the size
+     */
+    public static ImageData reduce(ImageData inData) {
+        ImageData filtered = GaussFilter.filter(inData, GaussFilter.prepareGaussFilter(GaussFilter.defaultSize(SIGMA), SIGMA), BorderMode.Mirror);
+        ImageData outData = new ImageData(Math.max(1, inData.width / 2), Math.max(1, inData.height / 2), 8, inData.palette);
+
+        Parallel.For(0, outData.height, y -> {
+            final int inRow = 2 * y * filtered.bytesPerLine;
+            final int outRow = y * outData.bytesPerLine;
+
+            for (int x = 0; x < outData.width; x++) {
+                outData.data[outRow + x] = filtered.data[inRow + 2 * x];
+            }
+        });
+        return outData;
+    }
+}
@@ -1,63 +1,142 @@
 package imageprocessing.filter;
 
+import gui.OptionPane;
+import imageprocessing.BorderMode;
 import imageprocessing.IImageProcessor;
+import imageprocessing.planar.GrayU8;
+import imageprocessing.planar.PlanarRGB;
 import main.Picsi;
 import org.eclipse.swt.graphics.ImageData;
+import utils.Parallel;
 
-import java.util.Arrays;
-
+/**
+ * Median filter with a square window of size (2*radius + 1)^2.
+ * Uses the sliding histogram of Huang: moving the window by one pixel removes one column and adds another one,
+ * and the median is updated incrementally. The work per pixel is O(radius).
+ */
 public class MedianFilter implements IImageProcessor {
 
     @Override
     public boolean isEnabled(int imageType) {
-        return imageType == Picsi.IMAGE_TYPE_GRAY;
+        return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB;
     }
 
     @Override
     public ImageData run(ImageData inData, int imageType) {
-        return applyMedianFilter(inData);
-    }
+        Integer radius = OptionPane.showIntegerDialog("Radius [Default: 1]", 1);
+        if (radius == null || radius < 0) return null;
 
-    public static ImageData applyMedianFilter(ImageData inData) {
-        final int size = 3*3;
-        ImageData outData = (ImageData) inData.clone();
-        int[] pixels = new int[size];
-
-        for(int v = 0; v < inData.height; v++) {
-            for(int u = 0; u < inData.width; u++) {
-                int n = 0;
-
-                for(int i = 0; i < size; i++) {
-                    int p = getPixel(inData, u, v, i);
-                    if(p >= 0) {
-                        pixels[n++] = p;
-                    }
-                }
+        if (imageType == Picsi.IMAGE_TYPE_GRAY) {
+            return applyMedianFilter(inData, radius, BorderMode.Mirror);
+        } else {
+            PlanarRGB in = PlanarRGB.from(inData);
+            PlanarRGB out = new PlanarRGB(in.m_width, in.m_height);
 
-                Arrays.sort(pixels, 0, n);
-                final int n2 = n/2;
-                final int p = ((n & 1) == 1) ? pixels[n2] : (pixels[n2 - 1] + pixels[n2]);
-                outData.setPixel(u, v, p);
+            for (int c = 0; c < 3; c++) {
+                median(in.getChannel(c), radius, BorderMode.Mirror, out.getChannel(c));
             }
+            return out.toImageData();
         }
+    }
 
+    /**
+     * 3x3 median filter of an 8 bit gray image
+     * @param inData 8 bit image
+     * @return new 8 bit image
+     */
+    public static ImageData applyMedianFilter(ImageData inData) {
+        return applyMedianFilter(inData, 1, BorderMode.Mirror);
+    }
+
+    /**
+     * Median filter of an 8 bit gray image
+     * @param inData 8 bit image
+     * @param radius window radius
+     * @param mode border handling
+     * @return new 8 bit image
+     */
+    public static ImageData applyMedianFilter(ImageData inData, int radius, BorderMode mode) {
+        ImageData outData = new ImageData(inData.width, inData.height, 8, inData.palette);
+
+        median(GrayU8.wrap(inData), radius, mode, GrayU8.wrap(outData));
         return outData;
     }
 
-    private static int[] dx = {0,1,1,0,-1,-1,-1,0,1};
-    private static int[] dy = {0,0,-1,-1,-1,0,1,1,1};
-    private static int getPixel(ImageData inData, int u, int v, int i) {
+    /**
+     * Median filter of a single channel. The rows are processed in parallel.
+     * @param in input channel
+     * @param radius window radius
+     * @param mode border handling, pixels outside of the image are 0 in mode Zero
+     * @param out output channel of the same size
+     */
+    public static void median(GrayU8 in, int radius, BorderMode mode, GrayU8 out) {
+        final int width = in.m_width;
+        final int height = in.m_height;
+        final int size = 2 * radius + 1;
+        final int half = size * size / 2;    // number of values below the median
 
-        u += dx[i];
-        if(u < 0 || u >= inData.width) {
-            return -1;
+        // column index of each window position or -1 for zero
+        final int[] columns = new int[width + size];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = mode.index(i - radius, width);
         }
 
-        v += dy[i];
-        if(v < 0 || v >= inData.height) {
-            return -1;
+        Parallel.For(0, height, y -> {
+            final int[] hist = new int[256];
+            final int[] rows = new int[size];
+            final int outRow = out.index(0, y);
+
+            // array index of each window row or -1 for zero
+            for (int j = 0; j < size; j++) {
+                final int v = mode.index(y + j - radius, height);
+                rows[j] = (v >= 0) ? in.index(0, v) : -1;
+            }
+
+            // initial window
+            for (int i = 0; i < size; i++) {
+                addColumn(in.m_data, rows, columns[i], hist, 1);
+            }
+
+            int med = 0, below = 0;
+            while (below + hist[med] <= half) {
+                below += hist[med++];
+            }
+            out.m_data[outRow] = (byte) med;
+
+            // slide window
+            for (int x = 1; x < width; x++) {
+                below += addColumn(in.m_data, rows, columns[x - 1], hist, -1, med);
+                below += addColumn(in.m_data, rows, columns[x + size - 1], hist, 1, med);
+
+                // move med until exactly 'half' values are below it
+                while (below > half) {
+                    below -= hist[--med];
+                }
+                while (below + hist[med] <= half) {
+                    below += hist[med++];
+                }
+                out.m_data[outRow + x] = (byte) med;
+            }
+        });
+    }
+
+    /**
+     * Adds (delta = 1) or removes (delta = -1) a window column to/from the histogram
+     * @return change of the number of values below med
+     */
+    private static int addColumn(byte[] data, int[] rows, int x, int[] hist, int delta, int med) {
+        int below = 0;
+
+        for (int row : rows) {
+            final int p = (row >= 0 && x >= 0) ? data[row + x] & 0xFF : 0;
+
+            hist[p] += delta;
+            if (p < med) below += delta;
         }
+        return below;
+    }
 
-        return inData.getPixel(u, v);
+    private static void addColumn(byte[] data, int[] rows, int x, int[] hist, int delta) {
+        addColumn(data, rows, x, hist, delta, 0);
     }
 }
@@ -9,7 +9,6 @@ import gui.OptionPane;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
 import main.Picsi;
-import utils.Complex;
 import utils.FrequencyDomain;
 import utils.Parallel;
 
@@ -21,6 +20,7 @@ import utils.Parallel;
  */
 public class FFT implements IImageProcessor {
 	final static double FilterFactor = 3.8; // 3.8 is a good value
+	final static int TransposeBlockSize = 32; // 32x32 doubles of source and destination fit into a typical L1 data cache
 	
 	@Override
 	public boolean isEnabled(int imageType) {
@@ -54,13 +54,13 @@ public class FFT implements IImageProcessor {
 		
 		switch(f1) {
 		case 0:
-			fd = fft2D(inData);
+			fd = rfft2D(inData);
 			switch(f2) {
 			case 0:
-				outData = getPowerSpectrum(fd.swapQuadrants());
+				outData = getPowerSpectrum(fd.shifted());
 				break;
 			case 1:
-				outData = getPhaseSpectrum(fd.swapQuadrants());
+				outData = getPhaseSpectrum(fd.shifted());
 				break;
 			case 2:
 				outData = ifft2D(fd);
@@ -71,10 +71,10 @@ public class FFT implements IImageProcessor {
 			fd = fht2D(inData);
 			switch(f2) {
 			case 0:
-				outData = getPowerSpectrum(fd.swapQuadrants());
+				outData = getPowerSpectrum(fd.shifted());
 				break;
 			case 1:
-				outData = getPhaseSpectrum(fd.swapQuadrants());
+				outData = getPhaseSpectrum(fd.shifted());
 				break;
 			case 2:
 				outData = ifht2D(fd);
@@ -135,56 +135,123 @@ public class FFT implements IImageProcessor {
 	 * @return frequency domain object
 	 */
 	public static FrequencyDomain fft2D(ImageData inData, int width, int height, double norm) {
-		int l = width - 1;
-		int w = 1;
-		while(l > 0) {
-			l >>= 1;
-			w <<= 1;
-		}
-		l = height - 1;
-		int h = 1;
-		while(l > 0) {
-			l >>= 1;
-			h <<= 1;
-		}
+		final int w = spectrumSize(width);
+		final int h = spectrumSize(height);
+		final int rows = Math.min(h, inData.height);
+		final int cols = Math.min(w, inData.width);
+		final double[] re = new double[w*h];
+		final double[] im = new double[w*h];
+		final FFTPlan rowPlan = FFTPlan.get(w, FFTPlan.Kind.Forward);
 		
-		Complex[] row = new Complex[w];
-		Complex[] col = new Complex[h];
-		Complex[][] G = new Complex[h][];
+		// forward transform rows: the padding rows remain zero
+		Parallel.For(0, rows, v -> {
+			final int iPos = v*inData.bytesPerLine;
+			final int oPos = v*w;
+			
+			for (int u=0; u < cols; u++) {
+				re[oPos + u] = (0xFF & inData.data[iPos + u])/norm;
+			}
+			FFT1D.transform(re, im, oPos, rowPlan);
+		});
 		
-		// create arrays
-		for (int i=0; i < row.length; i++) {
-			row[i] = new Complex();
-		}
+		// forward transform columns
+		transformColumns(re, im, w, h, w, FFTPlan.get(h, FFTPlan.Kind.Forward));
+		return new FrequencyDomain(inData, width, height, w, w, re, im);
+	}
+	
+	/**
+	 * 2D Fast Fourier Transform of a real image (forward transform)
+	 * @param inData input data
+	 * @return frequency domain object containing the non-redundant half spectrum
+	 */
+	public static FrequencyDomain rfft2D(ImageData inData) {
+		return rfft2D(inData, inData.width, inData.height, 1);
+	}
+	
+	/**
+	 * 2D Fast Fourier Transform of a real image (forward transform)
+	 * @param inData input data
+	 * @param norm
+	 * @return frequency domain object containing the non-redundant half spectrum
+	 */
+	public static FrequencyDomain rfft2D(ImageData inData, double norm) {
+		return rfft2D(inData, inData.width, inData.height, norm);
+	}
+	
+	/**
+	 * 2D Fast Fourier Transform of a real image (forward transform)
+	 * @param inData input data
+	 * @param width output width
+	 * @param height output height
+	 * @return frequency domain object containing the non-redundant half spectrum
+	 */
+	public static FrequencyDomain rfft2D(ImageData inData, int width, int height) {
+		return rfft2D(inData, width, height, 1);
+	}
+	
+	/**
+	 * 2D Fast Fourier Transform of a real image (forward transform).
+	 * The spectrum of a real image is Hermitian: G(u,v) = conj(G(-u,-v)). Hence only the columns [0, w/2] are computed
+	 * and stored. Two real rows are transformed at once as real and imaginary part of one complex row. 
+	 * Compared to fft2D, compute time and memory are roughly halved.
+	 * @param inData input data
+	 * @param width output width
+	 * @param height output height
+	 * @param norm
+	 * @return frequency domain object containing the non-redundant half spectrum
+	 */
+	public static FrequencyDomain rfft2D(ImageData inData, int width, int height, double norm) {
+		final int w = spectrumSize(width);
+		final int h = spectrumSize(height);
+		final int hw = w/2 + 1;
+		final int rows = Math.min(h, inData.height);
+		final int cols = Math.min(w, inData.width);
+		final double[] re = new double[hw*h];
+		final double[] im = new double[hw*h];
+		final FFTPlan rowPlan = FFTPlan.get(w, FFTPlan.Kind.Forward);
 		
-		// forward transform rows
-		int rowPos = 0;
-		for (int v=0; v < h; v++) {
-			if (v < inData.height) {
-				final int rP = rowPos;
-				Parallel.For(0, Math.min(w, inData.width), u -> {
-					row[u].m_re = (0xFF & inData.data[rP + u])/norm;
-				});
-				G[v] = FFT1D.fft(row);
-				rowPos += inData.bytesPerLine;
+		// forward transform pairs of rows: the padding rows remain zero
+		Parallel.For(0, (rows + 1)/2, p -> {
+			final int v = 2*p;
+			final double[] zr = rowPlan.acquire();
+			final double[] zi = rowPlan.acquire();
+			final int iPos = v*inData.bytesPerLine;
+			
+			// row v is the real part, row v + 1 the imaginary part
+			for (int u=0; u < cols; u++) {
+				zr[u] = (0xFF & inData.data[iPos + u])/norm;
+			}
+			Arrays.fill(zr, cols, w, 0);
+			if (v + 1 < rows) {
+				for (int u=0; u < cols; u++) {
+					zi[u] = (0xFF & inData.data[iPos + inData.bytesPerLine + u])/norm;
+				}
+				Arrays.fill(zi, cols, w, 0);
 			} else {
-				G[v] = new Complex[w];
-				Arrays.fill(G[v], new Complex());
+				Arrays.fill(zi, 0);
 			}
-		}
+			FFT1D.transform(zr, zi, 0, rowPlan);
+			
+			// separate the two spectra: X(k) = (Z(k) + conj(Z(-k)))/2, Y(k) = (Z(k) - conj(Z(-k)))/2i
+			final int oPos = v*hw;
+			
+			for (int k=0; k < hw; k++) {
+				final int m = (w - k)%w;
+				
+				re[oPos + k] = (zr[k] + zr[m])/2;
+				im[oPos + k] = (zi[k] - zi[m])/2;
+				if (v + 1 < h) {
+					re[oPos + hw + k] = (zi[k] + zi[m])/2;
+					im[oPos + hw + k] = (zr[m] - zr[k])/2;
+				}
+			}
+			rowPlan.release(zr);
+			rowPlan.release(zi);
+		});
 		
 		// forward transform columns
-		for (int u=0; u < w; u++) {
-			final int u_ = u;
-			Parallel.For(0, h, v -> {
-				col[v] = G[v][u_];
-			});
-			Complex[] Gcol = FFT1D.fft(col);
-			Parallel.For(0, h, v -> {
-				G[v][u_] = Gcol[v];
-			});
-		}
-		return new FrequencyDomain(inData, width, height, G);
+		transformColumns(re, im, hw, h, hw, FFTPlan.get(h, FFTPlan.Kind.Forward));
+		return new FrequencyDomain(inData, width, height, w, hw, re, im);
 	}
 	
 	/**
@@ -192,27 +259,19 @@ public class FFT implements IImageProcessor {
 	 * @param fd frequency domain object
 	 * @return output image
 	 */
-	public static ImageData ifft2D(FrequencyDomain fdOrig) {
-		FrequencyDomain fd = fdOrig.clone();
+	public static ImageData ifft2D(FrequencyDomain fd) {
 		ImageData outData = new ImageData(fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
-	
-		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
-			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
-		}
+		final int w = fd.getSpectrumWidth();
+		final double[] re = inverse2D(fd);
 		
-		// inverse transform columns
-		for (int u=0; u < Math.min(outData.width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
-			});
-			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(outData.height, fd.getSpectrumHeight()), v -> {
-				outData.data[u_ + v*outData.bytesPerLine] = (byte)ImageProcessing.clamp8(Gcol[v].m_re);
-			});
-		}
+		Parallel.For(0, Math.min(outData.height, fd.getSpectrumHeight()), v -> {
+			final int iPos = v*w;
+			final int oPos = v*outData.bytesPerLine;
+			
+			for (int u=0; u < Math.min(outData.width, w); u++) {
+				outData.data[oPos + u] = (byte)ImageProcessing.clamp8(re[iPos + u]);
+			}
+		});
 		return outData;
 	}
 
@@ -221,29 +280,146 @@ public class FFT implements IImageProcessor {
 	 * @param fd frequency domain object
 	 * @return output real part
 	 */
-	public static double[][] ifft2Dreal(FrequencyDomain fdOrig) {
-		FrequencyDomain fd = fdOrig.clone();
+	public static double[][] ifft2Dreal(FrequencyDomain fd) {
 		double[][] outData = new double[fd.m_height][fd.m_width];
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
+		final int w = fd.getSpectrumWidth();
+		final double[] re = inverse2D(fd);
+		
+		Parallel.For(0, Math.min(fd.m_height, fd.getSpectrumHeight()), v -> {
+			System.arraycopy(re, v*w, outData[v], 0, Math.min(fd.m_width, w));
+		});
+		return outData;
+	}
 	
+	/**
+	 * Inverse transform of all rows and of the columns covering the image
+	 * @param fd frequency domain object (unchanged)
+	 * @return real part of the spectrum sized result in row-major order, only columns less than fd.m_width and rows less than fd.m_height are valid
+	 */
+	private static double[] inverse2D(FrequencyDomain fd) {
+		if (fd.isHalfSpectrum()) return inverse2DHalf(fd);
+		
+		final int w = fd.getSpectrumWidth();
+		final int h = fd.getSpectrumHeight();
+		final double[] re = fd.m_re.clone();
+		final double[] im = fd.m_im.clone();
+		final FFTPlan rowPlan = FFTPlan.get(w, FFTPlan.Kind.Inverse);
+		
 		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
-			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
-		}
+		Parallel.For(0, h, v -> {
+			FFT1D.transform(re, im, v*w, rowPlan);
+		});
 		
 		// inverse transform columns
-		for (int u=0; u < Math.min(fd.m_width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
-			});
-			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(fd.m_height, fd.getSpectrumHeight()), v -> {
-				outData[v][u_] = Gcol[v].m_re;
-			});
-		}
-		return outData;
+		transformColumns(re, im, w, h, Math.min(fd.m_width, w), FFTPlan.get(h, FFTPlan.Kind.Inverse));
+		return re;
+	}
+	
+	/**
+	 * Inverse transform of a half spectrum: inverse transform of all stored columns and of the rows covering the image.
+	 * Two real rows are computed at once as real and imaginary part of one complex row.
+	 * @param fd frequency domain object containing a half spectrum (unchanged)
+	 * @return spectrum sized real result in row-major order, only rows less than fd.m_height are valid
+	 */
+	private static double[] inverse2DHalf(FrequencyDomain fd) {
+		final int w = fd.getSpectrumWidth();
+		final int h = fd.getSpectrumHeight();
+		final int hw = fd.m_stride;
+		final int rows = Math.min(fd.m_height, h);
+		final double[] re = fd.m_re.clone();
+		final double[] im = fd.m_im.clone();
+		final double[] out = new double[w*h];
+		final FFTPlan rowPlan = FFTPlan.get(w, FFTPlan.Kind.Inverse);
+		
+		// inverse transform columns
+		transformColumns(re, im, hw, h, hw, FFTPlan.get(h, FFTPlan.Kind.Inverse));
+		
+		// inverse transform pairs of rows
+		Parallel.For(0, (rows + 1)/2, p -> {
+			final int v = 2*p;
+			final boolean pair = v + 1 < h;
+			final double[] zr = rowPlan.acquire();
+			final double[] zi = rowPlan.acquire();
+			final int iPos = v*hw;
+			
+			// Z(k) = X(k) + i*Y(k), the columns k >= hw are the conjugates of the columns w - k
+			for (int k=0; k < w; k++) {
+				final boolean stored = k < hw;
+				final int m = stored ? k : w - k;
+				final double xr = re[iPos + m];
+				final double yr = pair ? re[iPos + hw + m] : 0;
+				double xi = 0, yi = 0;
+				
+				// self-conjugate columns contribute their real parts only
+				if (k != 0 && 2*k != w) {
+					xi = stored ? im[iPos + m] : -im[iPos + m];
+					if (pair) yi = stored ? im[iPos + hw + m] : -im[iPos + hw + m];
+				}
+				zr[k] = xr - yi;
+				zi[k] = xi + yr;
+			}
+			FFT1D.transform(zr, zi, 0, rowPlan);
+			
+			System.arraycopy(zr, 0, out, v*w, w);
+			if (pair) System.arraycopy(zi, 0, out, (v + 1)*w, w);
+			rowPlan.release(zr);
+			rowPlan.release(zi);
+		});
+		return out;
+	}
+	
+	/**
+	 * Transforms the first cols columns of the row-major planes re and im in place. 
+	 * The columns are transposed into rows in cache sized blocks, transformed in parallel, and transposed back.
+	 * @param re real parts
+	 * @param im imaginary parts
+	 * @param w row length
+	 * @param h number of rows and column length
+	 * @param cols number of columns to transform
+	 * @param plan plan of length h
+	 */
+	private static void transformColumns(double[] re, double[] im, int w, int h, int cols, FFTPlan plan) {
+		final double[] reT = new double[cols*h];
+		final double[] imT = new double[cols*h];
 		
+		transpose(re, w, reT, h, cols, h);
+		transpose(im, w, imT, h, cols, h);
+		Parallel.For(0, cols, u -> {
+			FFT1D.transform(reT, imT, u*h, plan);
+		});
+		transpose(reT, h, re, w, h, cols);
+		transpose(imT, h, im, w, h, cols);
+	}
+	
+	/**
+	 * Parallel cache blocked transpose: dst[x*dstStride + y] = src[y*srcStride + x]
+	 * @param src row-major source
+	 * @param srcStride row length of src
+	 * @param dst row-major destination
+	 * @param dstStride row length of dst
+	 * @param cols number of source columns to transpose
+	 * @param rows number of source rows to transpose
+	 */
+	static void transpose(double[] src, int srcStride, double[] dst, int dstStride, int cols, int rows) {
+		Parallel.forTiles(cols, rows, TransposeBlockSize, TransposeBlockSize, tile -> {
+			for (int x = tile.m_x0; x < tile.m_x1; x++) {
+				final int oPos = x*dstStride;
+				
+				for (int y = tile.m_y0; y < tile.m_y1; y++) {
+					dst[oPos + y] = src[y*srcStride + x];
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns the spectrum size used for an image dimension of n pixels. The image is padded with zeros 
+	 * to the next power of 2 or to the next length with prime factors 2, 3, and 5, whichever is cheaper.
+	 * @param n image width or height > 0
+	 * @return cheapest transform length >= n
+	 */
+	public static int spectrumSize(int n) {
+		return FFTPlan.paddedSize(n, FFTPlan.MixedRadixCost);
 	}
 	
 	/**
@@ -255,7 +431,12 @@ public class FFT implements IImageProcessor {
 		FHT fht2D = new FHT(inData);
 		
 		fht2D.transform();
-		return new FrequencyDomain(inData, fht2D.getSpectrum());
+		
+		final int w = fht2D.getSpectrumWidth();
+		final double[] re = new double[w*fht2D.getSpectrumHeight()];
+		final double[] im = new double[re.length];
+		fht2D.getSpectrum(re, im);
+		return new FrequencyDomain(inData, inData.width, inData.height, w, w, re, im);
 	}
 		
 	/**
@@ -264,7 +445,7 @@ public class FFT implements IImageProcessor {
 	 * @return output image
 	 */
 	public static ImageData ifht2D(FrequencyDomain fd) {
-		FHT fht2D = new FHT(fd.m_g, fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
+		FHT fht2D = new FHT(fd);
 		
 		fht2D.inverseTransform();
 		return fht2D.getImage();
@@ -292,8 +473,8 @@ public class FFT implements IImageProcessor {
 		swapImageQuadrants(filter); // makes sure that the filter center is in pos(0,0)
 		
 		// forward FFT
-		FrequencyDomain fdf = fft2D(filter, fsize*fsize);
-		FrequencyDomain fdi = fft2D(inData);
+		FrequencyDomain fdf = rfft2D(filter, fsize*fsize);
+		FrequencyDomain fdi = rfft2D(inData);
 		
 		// convolve inData with filter
 		FrequencyDomain fdif = fdi.mul(fdf);
@@ -311,11 +492,11 @@ public class FFT implements IImageProcessor {
 			return ifft2D(fdif.div(fdf));			
 		case 2:
 			// inverse filtering using integral blurred data
-			return ifft2D(fft2D(blurredData).div(fdf));
+			return ifft2D(rfft2D(blurredData).div(fdf));
 		case 3:
 		{
 			// using integral blurred data
-			FrequencyDomain fdif2 = fft2D(blurredData);
+			FrequencyDomain fdif2 = rfft2D(blurredData);
 
 			final int width = fdif.getSpectrumWidth();
         	final int height = fdif.getSpectrumHeight();
@@ -333,7 +514,7 @@ public class FFT implements IImageProcessor {
     				final int u = (u2 < 0) ? u2 + width : u2;
             		final double dist = Math.hypot(u2, v2);
             		
-            		if ((u != 0 || v != 0) && dist > r) {
+            		if (fdif2.isStored(u, v) && (u != 0 || v != 0) && dist > r) {
             			if (dist < r + sigmoidDomain) {
             				final double t = dist - r - sigmoidDomain/2;
             				fdif2.multiply(u, v, 1 - sigmoid(t/sigmoidScale));
@@ -431,7 +612,7 @@ public class FFT implements IImageProcessor {
 	
 	  		for (int row=0; row < height; row++) {
 				for (int col=0; col < width; col++) {
-					final double power = fd.m_g[row][col].abs2();
+					final double power = fd.getPower(col, row);
 					if (power < min) min = power;
 					if (power > max) max = power;
 				}
@@ -452,7 +633,7 @@ public class FFT implements IImageProcessor {
 			final int offset = row*width;
 			
 			for (int col=0; col < width; col++) {
-				double power = fd.m_g[row][col].abs2();
+				double power = fd.getPower(col, row);
 				power = (Math.log(power)/2 - fd.m_min)*fd.m_powerScale;
 				if (Double.isNaN(power) || power < 0) power = 0;
 				ps[offset + col] = (byte)ImageProcessing.clamp8(power + 1); // 1 is min value
@@ -480,7 +661,7 @@ public class FFT implements IImageProcessor {
 			final int offset = row*width;
 
 			for (int col=0; col < width; col++) {
-				double phi = fd.m_g[row][col].arg();
+				double phi = fd.getPhase(col, row);
 				ps[offset + col] = (byte)ImageProcessing.clamp8((phi + PID2)*scale);
 			}
 		});
@@ -502,18 +683,7 @@ public class FFT implements IImageProcessor {
 	 * D.h = floor(h/2) = h2
 	 */
 	public static void swapQuadrants(ImageData inData) {
-		final int w2 = inData.width/2,  w1 = inData.width - w2;
-		final int h2 = inData.height/2, h1 = inData.height - h2;
-
-		ImageData tA = ImageProcessing.crop(inData, w1, 0, w2, h1);
-		ImageData tB = ImageProcessing.crop(inData, 0, 0, w1, h1);
-		ImageData tC = ImageProcessing.crop(inData, 0, h1, w1, h2);
-		ImageData tD = ImageProcessing.crop(inData, w1, h1, w2, h2);
-		
-		ImageProcessing.insert(inData, tA, 0, h2);
-		ImageProcessing.insert(inData, tB, w2, h2);
-		ImageProcessing.insert(inData, tC, w2, 0);
-		ImageProcessing.insert(inData, tD, 0, 0);
+		rotate(inData, inData.width/2, inData.height/2);
 	}
 
 	/**	
@@ -529,17 +699,99 @@ public class FFT implements IImageProcessor {
 	 * D.h = ceil(h/2) = h2
 	 */
 	public static void swapImageQuadrants(ImageData inData) {
-		final int w1 = inData.width/2,  w2 = inData.width - w1;
-		final int h1 = inData.height/2, h2 = inData.height - h1;
+		rotate(inData, inData.width - inData.width/2, inData.height - inData.height/2);
+	}
+
+	/**
+	 * In-place cyclic shift: pixel (x,y) moves to ((x + dx) mod w, (y + dy) mod h).
+	 * Rows and pixels are moved along the gcd(n, d) cycles of the rotation, hence only one row is buffered.
+	 * @param inData image data
+	 * @param dx horizontal shift in [0, w)
+	 * @param dy vertical shift in [0, h)
+	 */
+	private static void rotate(ImageData inData, int dx, int dy) {
+		final int w = inData.width, h = inData.height;
+		final byte[] data = inData.data;
+		final int bpl = inData.bytesPerLine;
+
+		// rotate pixels inside each row
+		if (dx > 0) {
+			final int cycles = gcd(w, dx);
+
+			if (inData.depth%8 == 0) {
+				final int bpp = inData.depth/8;
+
+				Parallel.For(0, h, y -> {
+					final int pos = y*bpl;
+					final byte[] tmp = new byte[bpp];
+
+					for (int c = 0; c < cycles; c++) {
+						System.arraycopy(data, pos + c*bpp, tmp, 0, bpp);
+						int x = c;
+						int src = x - dx + w; // source of pixel x
+						if (src >= w) src -= w;
+						while (src != c) {
+							System.arraycopy(data, pos + src*bpp, data, pos + x*bpp, bpp);
+							x = src;
+							src = x - dx + w;
+							if (src >= w) src -= w;
+						}
+						System.arraycopy(tmp, 0, data, pos + x*bpp, bpp);
+					}
+				});
+			} else {
+				Parallel.For(0, h, y -> {
+					final int[] pixels = new int[w];
+
+					inData.getPixels(0, y, w, pixels, 0);
+					for (int c = 0; c < cycles; c++) {
+						final int tmp = pixels[c];
+						int x = c;
+						int src = x - dx + w;
+						if (src >= w) src -= w;
+						while (src != c) {
+							pixels[x] = pixels[src];
+							x = src;
+							src = x - dx + w;
+							if (src >= w) src -= w;
+						}
+						pixels[x] = tmp;
+					}
+					inData.setPixels(0, y, w, pixels, 0);
+				});
+			}
+		}
 
-		ImageData tA = ImageProcessing.crop(inData, w1, 0, w2, h1);
-		ImageData tB = ImageProcessing.crop(inData, 0, 0, w1, h1);
-		ImageData tC = ImageProcessing.crop(inData, 0, h1, w1, h2);
-		ImageData tD = ImageProcessing.crop(inData, w1, h1, w2, h2);
-		
-		ImageProcessing.insert(inData, tA, 0, h2);
-		ImageProcessing.insert(inData, tB, w2, h2);
-		ImageProcessing.insert(inData, tC, w2, 0);
-		ImageProcessing.insert(inData, tD, 0, 0);
+		// rotate rows
+		if (dy > 0) {
+			final int cycles = gcd(h, dy);
+			final byte[] tmp = new byte[bpl];
+
+			for (int c = 0; c < cycles; c++) {
+				System.arraycopy(data, c*bpl, tmp, 0, bpl);
+				int y = c;
+				int src = y - dy + h; // source of row y
+				if (src >= h) src -= h;
+				while (src != c) {
+					System.arraycopy(data, src*bpl, data, y*bpl, bpl);
+					y = src;
+					src = y - dy + h;
+					if (src >= h) src -= h;
+				}
+				System.arraycopy(tmp, 0, data, y*bpl, bpl);
+			}
+		}
+	}
+
+	/**
+	 * Greatest common divisor
+	 */
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			final int t = a%b;
+			a = b;
+			b = t;
+		}
+		return a;
 	}
 }
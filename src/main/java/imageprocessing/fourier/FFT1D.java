@@ -1,79 +1,347 @@
 package imageprocessing.fourier;
 
+import java.util.Arrays;
+
 import utils.Complex;
 
 /**
- * Fast Fourier Transforms in 1D
+ * Fast Fourier Transforms in 1D of arbitrary length.
+ * Transforms work in-place on separate arrays of real and imaginary parts.
+ * <pre>
+ * power of 2:         after the bit-reversal permutation, two radix-2 stages are fused into one radix-4 pass,
+ *                     hence the data is traversed only log4(N) times
+ * factors 2, 3, 5:    self-sorting mixed-radix (Stockham) passes with radices 4, 2, 3, and 5
+ * other lengths:      Bluestein's chirp-z algorithm: convolution of power of 2 length >= 2N - 1
+ * </pre>
+ * The twiddle factors and the bit-reversal permutation are taken from the shared plan cache, see FFTPlan.
  * @author Christoph Stamm
  *
  */
 public class FFT1D {
 	/**
-	 * Computes the FFT of x[], assuming its length is a power of 2
-	 * Difference to DFT1D: for m > N/2 subtraction is used while DFT always adds terms
-	 * @param x input of size 2^k
+	 * Computes the FFT of x[]
+	 * @param x input
 	 * @return complex Fourier spectrum 
 	 */
-    public static Complex[] fft(Complex[] x) {
-        int N = x.length;
-
-        // base case
-        if (N == 1) {
-        	return new Complex[] { x[0] };
-        } else {
-	        // radix 2 Cooley-Tukey FFT
-	        assert (N & 1) == 0 : "N is not a power of 2";
-	
-	        // fft of even terms
-	        Complex[] even = new Complex[N/2];
-	        for (int k = 0; k < N/2; k++) {
-	            even[k] = x[2*k];
-	        }
-	        Complex[] q = fft(even);
-	
-	        // fft of odd terms
-	        Complex[] odd  = even;  // reuse the array
-	        for (int k = 0; k < N/2; k++) {
-	            odd[k] = x[2*k + 1];
-	        }
-	        Complex[] r = fft(odd);
-	
-	        // combine
-	        Complex[] y = new Complex[N];
-	        for (int k = 0; k < N/2; k++) {
-	            final double kth = -2*k*Math.PI/N;
-	            Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-	            y[k]       = q[k].add(wk.mul(r[k]));
-	            y[k + N/2] = q[k].sub(wk.mul(r[k]));
-	        }
-	        return y;
-        }
-    }
-
-    /**
-     * Computes the inverse FFT of x[], assuming its length is a power of 2
-     * @param x complex Fourier spectrum
-     * @return (complex) output data
-     */
-    public static Complex[] ifft(Complex[] x) {
-        int N = x.length;
-        Complex[] y = new Complex[N];
-
-        // take conjugate
-        for (int i = 0; i < N; i++) {
-            y[i] = x[i].conjugate();
-        }
-
-        // compute forward FFT
-        y = fft(y);
-
-        // take conjugate again
-        // divide by N
-        for (int i = 0; i < N; i++) {
-            y[i].conj();
-            y[i].divide(N);
-        }
-
-        return y;
-    }
+	public static Complex[] fft(Complex[] x) {
+		return transform(x, false);
+	}
+
+	/**
+	 * Computes the inverse FFT of x[]
+	 * @param x complex Fourier spectrum
+	 * @return (complex) output data
+	 */
+	public static Complex[] ifft(Complex[] x) {
+		return transform(x, true);
+	}
+
+	/**
+	 * In-place forward FFT
+	 * @param re real parts
+	 * @param im imaginary parts of the same length
+	 */
+	public static void fft(double[] re, double[] im) {
+		transform(re, im, 0, re.length, false);
+	}
+
+	/**
+	 * In-place inverse FFT including the division by N
+	 * @param re real parts
+	 * @param im imaginary parts of the same length
+	 */
+	public static void ifft(double[] re, double[] im) {
+		transform(re, im, 0, re.length, true);
+	}
+
+	/**
+	 * In-place FFT of the n values starting at offset
+	 * @param re real parts
+	 * @param im imaginary parts
+	 * @param offset index of the first value
+	 * @param n number of values
+	 * @param inverse true: inverse transform including the division by n
+	 */
+	public static void transform(double[] re, double[] im, int offset, int n, boolean inverse) {
+		if (n == 1) return;
+		transform(re, im, offset, FFTPlan.get(n, inverse ? FFTPlan.Kind.Inverse : FFTPlan.Kind.Forward));
+	}
+
+	/**
+	 * In-place FFT of plan.m_n values starting at offset
+	 * @param re real parts
+	 * @param im imaginary parts
+	 * @param offset index of the first value
+	 * @param plan forward or inverse plan
+	 */
+	static void transform(double[] re, double[] im, int offset, FFTPlan plan) {
+		final int n = plan.m_n;
+		if (n == 1) return;
+		
+		if (plan.m_factors != null) {
+			mixedRadix(re, im, offset, plan);
+		} else if (plan.m_filterRe != null) {
+			bluestein(re, im, offset, plan);
+		} else {
+			radix4(re, im, offset, plan);
+		}
+		if (plan.m_kind == FFTPlan.Kind.Inverse) {
+			final double scale = 1.0/n;
+			for (int i = offset; i < offset + n; i++) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	/**
+	 * Radix-2/4 FFT of a power of 2 length, without scaling
+	 */
+	private static void radix4(double[] re, double[] im, int offset, FFTPlan plan) {
+		final int n = plan.m_n;
+
+		final double[] cos = plan.m_cos, sin = plan.m_sin;
+		final double sign = (plan.m_kind == FFTPlan.Kind.Inverse) ? 1 : -1;	// exponent sign: forward W = exp(-2*pi*i/N)
+
+		// bit-reversal permutation
+		plan.bitReverse(re, offset);
+		plan.bitReverse(im, offset);
+
+		int len = 1;	// half size of the sub-transforms of the current stage
+
+		// one radix-2 stage if log2(n) is odd
+		if ((Integer.numberOfTrailingZeros(n) & 1) == 1) {
+			for (int i = offset; i < offset + n; i += 2) {
+				final double ar = re[i], ai = im[i], br = re[i + 1], bi = im[i + 1];
+				re[i] = ar + br; im[i] = ai + bi;
+				re[i + 1] = ar - br; im[i + 1] = ai - bi;
+			}
+			len = 2;
+		}
+
+		// radix-4 passes: two fused radix-2 stages of sizes 2*len and 4*len
+		for (; len < n; len <<= 2) {
+			final int step4 = n/(4*len);	// twiddle index step of W_{4len}
+			final int step2 = 2*step4;		// twiddle index step of W_{2len}
+
+			for (int j = offset; j < offset + n; j += 4*len) {
+				for (int k = 0; k < len; k++) {
+					final double w2r = cos[k*step2], w2i = sin[k*step2];
+					final double w4r = cos[k*step4], w4i = sin[k*step4];
+					final int i0 = j + k, i1 = i0 + len, i2 = i1 + len, i3 = i2 + len;
+
+					// stage of size 2*len on (i0, i1) and (i2, i3)
+					double tr = w2r*re[i1] - w2i*im[i1], ti = w2r*im[i1] + w2i*re[i1];
+					final double b0r = re[i0] + tr, b0i = im[i0] + ti;
+					final double b1r = re[i0] - tr, b1i = im[i0] - ti;
+					tr = w2r*re[i3] - w2i*im[i3]; ti = w2r*im[i3] + w2i*re[i3];
+					final double b2r = re[i2] + tr, b2i = im[i2] + ti;
+					final double b3r = re[i2] - tr, b3i = im[i2] - ti;
+
+					// stage of size 4*len on (i0, i2) with W_{4len}^k and (i1, i3) with W_{4len}^(k + len) = sign*i*W_{4len}^k
+					tr = w4r*b2r - w4i*b2i; ti = w4r*b2i + w4i*b2r;
+					re[i0] = b0r + tr; im[i0] = b0i + ti;
+					re[i2] = b0r - tr; im[i2] = b0i - ti;
+					tr = w4r*b3r - w4i*b3i; ti = w4r*b3i + w4i*b3r;
+					final double ur = -sign*ti, ui = sign*tr;	// multiplication by sign*i
+					re[i1] = b1r + ur; im[i1] = b1i + ui;
+					re[i3] = b1r - ur; im[i3] = b1i - ui;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Self-sorting mixed-radix FFT (Stockham), without scaling.
+	 * A pass of radix p splits a transform of length L into p interleaved transforms of length L/p.
+	 * The passes alternate between the input and a scratch buffer.
+	 */
+	private static void mixedRadix(double[] re, double[] im, int offset, FFTPlan plan) {
+		final int n = plan.m_n;
+		final double[] bufRe = plan.acquire(), bufIm = plan.acquire();
+		double[] srcRe = re, srcIm = im, dstRe = bufRe, dstIm = bufIm;
+		int srcOff = offset, dstOff = 0;
+		int len = n, stride = 1;
+
+		for (int p : plan.m_factors) {
+			radixPass(srcRe, srcIm, srcOff, dstRe, dstIm, dstOff, len, stride, p, plan);
+			len /= p;
+			stride *= p;
+
+			double[] t = srcRe; srcRe = dstRe; dstRe = t;
+			t = srcIm; srcIm = dstIm; dstIm = t;
+			final int o = srcOff; srcOff = dstOff; dstOff = o;
+		}
+		if (srcRe != re) {
+			System.arraycopy(srcRe, 0, re, offset, n);
+			System.arraycopy(srcIm, 0, im, offset, n);
+		}
+		plan.release(bufRe);
+		plan.release(bufIm);
+	}
+
+	/**
+	 * One decimation in frequency pass of radix p on stride interleaved transforms of length len:
+	 * y(t)[j] = W_len^(j*t) * sum_r x[j + r*len/p]*W_p^(r*t), and y(t) is stored interleaved with the new stride p*stride.
+	 */
+	private static void radixPass(double[] xr, double[] xi, int xOff, double[] yr, double[] yi, int yOff, int len, int stride, int p, FFTPlan plan) {
+		final double[] cos = plan.m_cos, sin = plan.m_sin;
+		final double sign = (plan.m_kind == FFTPlan.Kind.Inverse) ? 1 : -1;
+		final int m = len/p;
+		final int step = plan.m_n/len;	// twiddle index step of W_len
+		final int ms = m*stride;
+
+		for (int j = 0; j < m; j++) {
+			final int in = xOff + j*stride;
+			final int out = yOff + j*p*stride;
+
+			switch(p) {
+			case 2: {
+				final double w1r = cos[j*step], w1i = sin[j*step];
+				for (int q = 0; q < stride; q++) {
+					final int i0 = in + q, i1 = i0 + ms;
+					final int o0 = out + q, o1 = o0 + stride;
+					final double dr = xr[i0] - xr[i1], di = xi[i0] - xi[i1];
+					yr[o0] = xr[i0] + xr[i1]; yi[o0] = xi[i0] + xi[i1];
+					yr[o1] = dr*w1r - di*w1i; yi[o1] = dr*w1i + di*w1r;
+				}
+				break;
+			}
+			case 3: {
+				final double w1r = cos[j*step], w1i = sin[j*step];
+				final double w2r = cos[2*j*step], w2i = sin[2*j*step];
+				final double s3 = sign*Math.sqrt(0.75);	// imaginary part of W_3 = exp(-+2*pi*i/3)
+				for (int q = 0; q < stride; q++) {
+					final int i0 = in + q, i1 = i0 + ms, i2 = i1 + ms;
+					final int o0 = out + q, o1 = o0 + stride, o2 = o1 + stride;
+					final double sr = xr[i1] + xr[i2], si = xi[i1] + xi[i2];
+					final double mr = xr[i0] - sr/2, mi = xi[i0] - si/2;
+					final double rr = -s3*(xi[i1] - xi[i2]), ri = s3*(xr[i1] - xr[i2]);	// i*s3*(x1 - x2)
+					yr[o0] = xr[i0] + sr; yi[o0] = xi[i0] + si;
+					double ar = mr + rr, ai = mi + ri;
+					yr[o1] = ar*w1r - ai*w1i; yi[o1] = ar*w1i + ai*w1r;
+					ar = mr - rr; ai = mi - ri;
+					yr[o2] = ar*w2r - ai*w2i; yi[o2] = ar*w2i + ai*w2r;
+				}
+				break;
+			}
+			case 4: {
+				final double w1r = cos[j*step], w1i = sin[j*step];
+				final double w2r = cos[2*j*step], w2i = sin[2*j*step];
+				final double w3r = cos[3*j*step], w3i = sin[3*j*step];
+				for (int q = 0; q < stride; q++) {
+					final int i0 = in + q, i1 = i0 + ms, i2 = i1 + ms, i3 = i2 + ms;
+					final int o0 = out + q, o1 = o0 + stride, o2 = o1 + stride, o3 = o2 + stride;
+					final double t0r = xr[i0] + xr[i2], t0i = xi[i0] + xi[i2];
+					final double t1r = xr[i0] - xr[i2], t1i = xi[i0] - xi[i2];
+					final double t2r = xr[i1] + xr[i3], t2i = xi[i1] + xi[i3];
+					final double t3r = -sign*(xi[i1] - xi[i3]), t3i = sign*(xr[i1] - xr[i3]);	// W_4 = sign*i
+					yr[o0] = t0r + t2r; yi[o0] = t0i + t2i;
+					double ar = t1r + t3r, ai = t1i + t3i;
+					yr[o1] = ar*w1r - ai*w1i; yi[o1] = ar*w1i + ai*w1r;
+					ar = t0r - t2r; ai = t0i - t2i;
+					yr[o2] = ar*w2r - ai*w2i; yi[o2] = ar*w2i + ai*w2r;
+					ar = t1r - t3r; ai = t1i - t3i;
+					yr[o3] = ar*w3r - ai*w3i; yi[o3] = ar*w3i + ai*w3r;
+				}
+				break;
+			}
+			case 5: {
+				final double w1r = cos[j*step], w1i = sin[j*step];
+				final double w2r = cos[2*j*step], w2i = sin[2*j*step];
+				final double w3r = cos[3*j*step], w3i = sin[3*j*step];
+				final double w4r = cos[4*j*step], w4i = sin[4*j*step];
+				final double c1 = Math.cos(2*Math.PI/5), c2 = Math.cos(4*Math.PI/5);
+				final double s1 = sign*Math.sin(2*Math.PI/5), s2 = sign*Math.sin(4*Math.PI/5);
+				for (int q = 0; q < stride; q++) {
+					final int i0 = in + q, i1 = i0 + ms, i2 = i1 + ms, i3 = i2 + ms, i4 = i3 + ms;
+					final int o0 = out + q, o1 = o0 + stride, o2 = o1 + stride, o3 = o2 + stride, o4 = o3 + stride;
+					final double b1r = xr[i1] + xr[i4], b1i = xi[i1] + xi[i4];
+					final double b2r = xr[i2] + xr[i3], b2i = xi[i2] + xi[i3];
+					final double d1r = xr[i1] - xr[i4], d1i = xi[i1] - xi[i4];
+					final double d2r = xr[i2] - xr[i3], d2i = xi[i2] - xi[i3];
+					final double m1r = xr[i0] + c1*b1r + c2*b2r, m1i = xi[i0] + c1*b1i + c2*b2i;
+					final double m2r = xr[i0] + c2*b1r + c1*b2r, m2i = xi[i0] + c2*b1i + c1*b2i;
+					final double r1r = -(s1*d1i + s2*d2i), r1i = s1*d1r + s2*d2r;	// i*(s1*d1 + s2*d2)
+					final double r2r = -(s2*d1i - s1*d2i), r2i = s2*d1r - s1*d2r;	// i*(s2*d1 - s1*d2)
+					yr[o0] = xr[i0] + b1r + b2r; yi[o0] = xi[i0] + b1i + b2i;
+					double ar = m1r + r1r, ai = m1i + r1i;
+					yr[o1] = ar*w1r - ai*w1i; yi[o1] = ar*w1i + ai*w1r;
+					ar = m2r + r2r; ai = m2i + r2i;
+					yr[o2] = ar*w2r - ai*w2i; yi[o2] = ar*w2i + ai*w2r;
+					ar = m2r - r2r; ai = m2i - r2i;
+					yr[o3] = ar*w3r - ai*w3i; yi[o3] = ar*w3i + ai*w3r;
+					ar = m1r - r1r; ai = m1i - r1i;
+					yr[o4] = ar*w4r - ai*w4i; yi[o4] = ar*w4i + ai*w4r;
+				}
+				break;
+			}
+			default:
+				assert false : "unsupported radix " + p;
+			}
+		}
+	}
+
+	/**
+	 * Bluestein's chirp-z FFT of arbitrary length, without scaling.
+	 * X(k) = c(k)*sum_j (x(j)*c(j))*conj(c(k - j)) with the chirp c(k) = exp(-+pi*i*k^2/N) is a convolution, 
+	 * which is computed with power of 2 transforms. 
+	 */
+	private static void bluestein(double[] re, double[] im, int offset, FFTPlan plan) {
+		final int n = plan.m_n;
+		final double[] cos = plan.m_cos, sin = plan.m_sin;
+		final double[] fr = plan.m_filterRe, fi = plan.m_filterIm;
+		final int m = fr.length;
+		final double[] ar = plan.m_forward.acquire(), ai = plan.m_forward.acquire();
+
+		// a(k) = x(k)*c(k), zero padded
+		for (int k = 0; k < n; k++) {
+			final double xr = re[offset + k], xi = im[offset + k];
+			ar[k] = xr*cos[k] - xi*sin[k];
+			ai[k] = xr*sin[k] + xi*cos[k];
+		}
+		Arrays.fill(ar, n, m, 0);
+		Arrays.fill(ai, n, m, 0);
+
+		// convolution with the conjugate chirp
+		transform(ar, ai, 0, plan.m_forward);
+		for (int k = 0; k < m; k++) {
+			final double t = ar[k]*fr[k] - ai[k]*fi[k];
+			ai[k] = ar[k]*fi[k] + ai[k]*fr[k];
+			ar[k] = t;
+		}
+		transform(ar, ai, 0, plan.m_inverse);
+
+		// X(k) = c(k)*conv(k)
+		for (int k = 0; k < n; k++) {
+			re[offset + k] = ar[k]*cos[k] - ai[k]*sin[k];
+			im[offset + k] = ar[k]*sin[k] + ai[k]*cos[k];
+		}
+		plan.m_forward.release(ar);
+		plan.m_forward.release(ai);
+	}
+
+	/**
+	 * Adapter for arrays of complex numbers
+	 */
+	private static Complex[] transform(Complex[] x, boolean inverse) {
+		final int n = x.length;
+		final FFTPlan plan = FFTPlan.get(n, inverse ? FFTPlan.Kind.Inverse : FFTPlan.Kind.Forward);
+		final double[] re = plan.acquire(), im = plan.acquire();
+
+		for (int i = 0; i < n; i++) {
+			re[i] = x[i].m_re;
+			im[i] = x[i].m_im;
+		}
+		transform(re, im, 0, plan);
+
+		Complex[] y = new Complex[n];
+		for (int i = 0; i < n; i++) {
+			y[i] = new Complex(re[i], im[i]);
+		}
+		plan.release(re);
+		plan.release(im);
+		return y;
+	}
 }
@@ -0,0 +1,248 @@
+package imageprocessing.fourier;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed tables of a 1D transform of given length and direction: twiddle factors, bit-reversal permutation,
+ * and a small pool of scratch buffers. Lengths that are powers of 2 use the radix-2/4 algorithm, lengths with prime
+ * factors 2, 3, and 5 use the mixed-radix algorithm, and all other lengths use Bluestein's chirp-z algorithm.
+ * Plans are shared by all threads through a global cache with bounded size and LRU eviction, hence repeated
+ * transforms of the same length skip all setup work.
+ * Apart from the scratch buffer pool, plans are immutable.
+ */
+final class FFTPlan {
+	enum Kind { Forward, Inverse, Hartley }
+	
+	static final int CacheSize = 32;		// maximum number of cached plans
+	static final int MaxScratchBuffers = 8;	// maximum number of pooled scratch buffers per plan
+	static final double MixedRadixCost = 1.25;	// cost per value and stage of a mixed-radix transform relative to radix-2/4 (measured)
+	static final double BluesteinCost = 2.5;	// cost of a Bluestein transform relative to a radix-2/4 transform of the convolution length (measured)
+	
+	private static final LinkedHashMap<Long, FFTPlan> s_cache = new LinkedHashMap<Long, FFTPlan>(CacheSize, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, FFTPlan> eldest) {
+			return size() > CacheSize;
+		}
+	};
+	
+	final int m_n;				// transform length
+	final Kind m_kind;
+	final double[] m_cos, m_sin;	// Fourier plans: W^k = m_cos[k] + i*m_sin[k], W = exp(-+2*pi*i/N), k in [0, N/2) or [0, N) for mixed-radix plans
+	final float[] m_hartleyCos, m_hartleySin;	// Hartley plans: cos(2*pi*k/N), sin(2*pi*k/N), k in [0, N/4)
+	final int[] m_swaps;		// pairs (i, j) with i < j of the bit-reversal permutation, null if N isn't a power of 2
+	final int[] m_factors;		// radices of a mixed-radix plan, otherwise null
+	final FFTPlan m_forward, m_inverse;	// Bluestein plans: radix-2/4 plans of the convolution length, otherwise null
+	final double[] m_filterRe, m_filterIm;	// Bluestein plans: transformed conjugate chirp of the convolution length
+	private final ArrayDeque<double[]> m_scratch = new ArrayDeque<>();
+	
+	/**
+	 * Returns the cached plan or creates a new one
+	 * @param n transform length > 0, Hartley plans require a power of 2
+	 * @param kind transform type and direction
+	 * @return shared plan
+	 */
+	static FFTPlan get(int n, Kind kind) {
+		final Long key = ((long)n << 2) | kind.ordinal();
+		
+		synchronized(s_cache) {
+			FFTPlan plan = s_cache.get(key);
+			
+			if (plan == null) {
+				plan = new FFTPlan(n, kind);
+				s_cache.put(key, plan);
+			}
+			return plan;
+		}
+	}
+	
+	private FFTPlan(int n, Kind kind) {
+		assert n > 0 : "n must be positive";
+		m_n = n;
+		m_kind = kind;
+
+		final boolean powerOf2 = isPowerOf2(n);
+		final double sign = (kind == Kind.Inverse) ? 1 : -1;
+		
+		if (kind == Kind.Hartley) {
+			assert powerOf2 : "n is not a power of 2";
+			m_cos = m_sin = null;
+			m_hartleyCos = new float[n/4];
+			m_hartleySin = new float[n/4];
+			for (int k = 0; k < n/4; k++) {
+				final double a = 2*Math.PI*k/n;
+				m_hartleyCos[k] = (float)Math.cos(a);
+				m_hartleySin[k] = (float)Math.sin(a);
+			}
+		} else {
+			// Bluestein plans use the chirp exp(-+pi*i*k^2/N) instead of twiddle factors
+			final boolean chirp = !powerOf2 && !isSmooth(n);
+			final int len = powerOf2 ? n/2 : n;
+			
+			m_hartleyCos = m_hartleySin = null;
+			m_cos = new double[len];
+			m_sin = new double[len];
+			for (int k = 0; k < len; k++) {
+				final double a = chirp ? Math.PI*(((long)k*k)%(2L*n))/n : 2*Math.PI*k/n;
+				m_cos[k] = Math.cos(a);
+				m_sin[k] = sign*Math.sin(a);
+			}
+		}
+		
+		if (powerOf2) {
+			final int bits = Integer.numberOfTrailingZeros(n);
+			int[] swaps = new int[n];
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				final int j = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+				if (i < j) {
+					swaps[count++] = i;
+					swaps[count++] = j;
+				}
+			}
+			m_swaps = Arrays.copyOf(swaps, count);
+			m_factors = null;
+			m_forward = m_inverse = null;
+			m_filterRe = m_filterIm = null;
+		} else if (isSmooth(n)) {
+			m_swaps = null;
+			m_factors = factorize(n);
+			m_forward = m_inverse = null;
+			m_filterRe = m_filterIm = null;
+		} else {
+			// Bluestein: X(k) = c(k)*sum_j (x(j)*c(j))*conj(c(k - j)) with the chirp c(k) = exp(-+pi*i*k^2/N)
+			final int m = Integer.highestOneBit(2*n - 1) << 1;
+			
+			m_swaps = null;
+			m_factors = null;
+			m_forward = get(m, Kind.Forward);
+			m_inverse = get(m, Kind.Inverse);
+			m_filterRe = new double[m];
+			m_filterIm = new double[m];
+			for (int k = 0; k < n; k++) {
+				m_filterRe[k] = m_cos[k];
+				m_filterIm[k] = -m_sin[k];
+				if (k > 0) {
+					m_filterRe[m - k] = m_cos[k];
+					m_filterIm[m - k] = -m_sin[k];
+				}
+			}
+			FFT1D.transform(m_filterRe, m_filterIm, 0, m_forward);
+		}
+	}
+	
+	/**
+	 * Returns the transform length >= n with the lowest estimated cost. Candidates are n itself, the next
+	 * length with prime factors 2, 3, and 5, and the next power of 2.
+	 * @param n minimal length > 0
+	 * @param mixedRadixCost cost per value and stage of a non power of 2 length relative to a power of 2 length
+	 * @return transform length
+	 */
+	static int paddedSize(int n, double mixedRadixCost) {
+		final int pow2 = isPowerOf2(n) ? n : Integer.highestOneBit(n) << 1;
+		int smooth = n;
+		
+		while (!isSmooth(smooth)) smooth++;
+		
+		int best = pow2;
+		double bestCost = cost(pow2, 1);
+		if (smooth < pow2 && cost(smooth, mixedRadixCost) < bestCost) {
+			best = smooth;
+			bestCost = cost(smooth, mixedRadixCost);
+		}
+		if (n < smooth) {
+			// Bluestein
+			final int m = Integer.highestOneBit(2*n - 1) << 1;
+			if (BluesteinCost*cost(m, 1) < bestCost) best = n;
+		}
+		return best;
+	}
+	
+	/**
+	 * @return estimated cost of a transform of length n
+	 */
+	private static double cost(int n, double factor) {
+		return factor*n*Math.max(1, Math.log(n)/Math.log(2));
+	}
+	
+	/**
+	 * @return true if n is a power of 2
+	 */
+	static boolean isPowerOf2(int n) {
+		return Integer.bitCount(n) == 1;
+	}
+	
+	/**
+	 * @return true if n > 0 has no other prime factors than 2, 3, and 5
+	 */
+	static boolean isSmooth(int n) {
+		for (int p : new int[] { 2, 3, 5 }) {
+			while (n%p == 0) n /= p;
+		}
+		return n == 1;
+	}
+	
+	/**
+	 * Factorizes a length with prime factors 2, 3, and 5 into radices 4, 2, 3, and 5. 
+	 * Radix 4 is preferred because it needs the fewest operations per value.
+	 * @param n length
+	 * @return radices
+	 */
+	private static int[] factorize(int n) {
+		int[] factors = new int[32];
+		int count = 0;
+		
+		while (n%4 == 0) { factors[count++] = 4; n /= 4; }
+		for (int p : new int[] { 2, 3, 5 }) {
+			while (n%p == 0) { factors[count++] = p; n /= p; }
+		}
+		return Arrays.copyOf(factors, count);
+	}
+	
+	/**
+	 * Applies the bit-reversal permutation to the n values starting at offset
+	 */
+	void bitReverse(double[] x, int offset) {
+		for (int s = 0; s < m_swaps.length; s += 2) {
+			final int i = offset + m_swaps[s], j = offset + m_swaps[s + 1];
+			final double t = x[i]; x[i] = x[j]; x[j] = t;
+		}
+	}
+	
+	/**
+	 * Applies the bit-reversal permutation to the n values starting at offset
+	 */
+	void bitReverse(float[] x, int offset) {
+		for (int s = 0; s < m_swaps.length; s += 2) {
+			final int i = offset + m_swaps[s], j = offset + m_swaps[s + 1];
+			final float t = x[i]; x[i] = x[j]; x[j] = t;
+		}
+	}
+	
+	/**
+	 * Returns a scratch buffer of length n. The content is undefined.
+	 * @return pooled or new buffer
+	 */
+	double[] acquire() {
+		synchronized(m_scratch) {
+			final double[] buffer = m_scratch.poll();
+			if (buffer != null) return buffer;
+		}
+		return new double[m_n];
+	}
+	
+	/**
+	 * Returns a scratch buffer to the pool
+	 * @param buffer buffer obtained by acquire
+	 */
+	void release(double[] buffer) {
+		assert buffer.length == m_n : "buffer has wrong length";
+		synchronized(m_scratch) {
+			if (m_scratch.size() < MaxScratchBuffers) m_scratch.push(buffer);
+		}
+	}
+}
@@ -5,16 +5,21 @@ import org.eclipse.swt.graphics.PaletteData;
 
 import imageprocessing.ImageProcessing;
 import utils.Complex;
+import utils.FrequencyDomain;
+import utils.Parallel;
 
 /**
- * 2D Fast Hartley Transform
+ * 2D Fast Hartley Transform of rectangular images.
+ * The width and height of the spectrum are chosen independently, see spectrumSize.
  * @author Christoph Stamm
  *
  */
 public class FHT extends FHT1D implements Cloneable {
+	static final double MixedRadixCost = 2.0;	// cost per value and stage of the FFT based DHT relative to the radix-2 FHT (measured)
+	
 	private int m_width, m_height;
 	private boolean m_isFrequencyDomain;
-	private int m_maxN;
+	private int m_specWidth, m_specHeight;	// spectrum size
 	private float[] m_pixels;
 	private int m_depth;
 	private PaletteData m_palette;
@@ -35,13 +40,9 @@ public class FHT extends FHT1D implements Cloneable {
 		m_palette = inData.palette;
 		m_isFrequencyDomain = false;
 		
-		int l = Math.max(inData.width, inData.height) - 1;
-		m_maxN = 1;
-		while(l > 0) {
-			l >>= 1;
-			m_maxN <<= 1;
-		}
-		m_pixels = new float[m_maxN*m_maxN];
+		m_specWidth = spectrumSize(inData.width);
+		m_specHeight = spectrumSize(inData.height);
+		m_pixels = new float[m_specWidth*m_specHeight];
 		
 		int iPos = 0, oPos = 0;
 		for (int v = 0; v < inData.height; v++) {
@@ -50,7 +51,7 @@ public class FHT extends FHT1D implements Cloneable {
 				m_pixels[oPos++] = (0xFF & inData.data[iPos++])/(float)norm; // unsigned values
 			}
 			iPos += inData.bytesPerLine - inData.width;
-			oPos += m_maxN - inData.width;
+			oPos += m_specWidth - inData.width;
 		}
 	}
 
@@ -67,36 +68,70 @@ public class FHT extends FHT1D implements Cloneable {
 		m_height = h;
 		this.m_depth = depth;
 		this.m_palette = palette;
-		m_maxN = G.length;
-		m_maxN = G[0].length;
-		m_pixels = new float[m_maxN*m_maxN];
+		m_specHeight = G.length;
+		m_specWidth = G[0].length;
+		m_pixels = new float[m_specWidth*m_specHeight];
 		m_isFrequencyDomain = true;
 		
 		int base = 0;
-		for (int row = 0; row < m_maxN; row++) {
-	        int offs = ((m_maxN - row)%m_maxN)*m_maxN;
+		for (int row = 0; row < m_specHeight; row++) {
+	        int offs = ((m_specHeight - row)%m_specHeight)*m_specWidth;
 	        
-	        for (int col = 0; col < m_maxN; col++) {
+	        for (int col = 0; col < m_specWidth; col++) {
 	        	int omegaPlus = base + col;
-	        	int omegaNeg = offs + ((m_maxN - col)%m_maxN);
+	        	int omegaNeg = offs + ((m_specWidth - col)%m_specWidth);
 	        	Complex c = G[row][col];
 	        	
 	        	// compute FHT using FT
 	        	m_pixels[omegaPlus] = (float)(c.m_re - c.m_im);
 	        	m_pixels[omegaNeg]  = (float)(c.m_re + c.m_im);
 	        }
-	        base += m_maxN;
+	        base += m_specWidth;
+		}
+	}
+
+	/**
+	 * Constructor for inverse transform
+	 * @param fdOrig frequency domain object, a half spectrum is mirrored
+	 */
+	public FHT(FrequencyDomain fdOrig) {
+		final FrequencyDomain fd = fdOrig.toFullSpectrum();
+		final double[] re = fd.m_re, im = fd.m_im;
+		
+		m_width = fd.m_width;
+		m_height = fd.m_height;
+		m_depth = fd.m_depth;
+		m_palette = fd.m_palette;
+		m_specWidth = fd.getSpectrumWidth();
+		m_specHeight = fd.getSpectrumHeight();
+		m_pixels = new float[m_specWidth*m_specHeight];
+		m_isFrequencyDomain = true;
+		
+		int base = 0;
+		for (int row = 0; row < m_specHeight; row++) {
+	        final int offs = ((m_specHeight - row)%m_specHeight)*m_specWidth;
+	        
+	        for (int col = 0; col < m_specWidth; col++) {
+	        	final int omegaPlus = base + col;
+	        	final int omegaNeg = offs + ((m_specWidth - col)%m_specWidth);
+	        	
+	        	// compute FHT using FT
+	        	m_pixels[omegaPlus] = (float)(re[omegaPlus] - im[omegaPlus]);
+	        	m_pixels[omegaNeg]  = (float)(re[omegaPlus] + im[omegaPlus]);
+	        }
+	        base += m_specWidth;
 		}
 	}
 
 	private FHT(FHT fht2D, float[] fht) {
-		m_maxN = fht2D.m_maxN;
+		m_specWidth = fht2D.m_specWidth;
+		m_specHeight = fht2D.m_specHeight;
 		m_width = fht2D.m_width;
 		m_height = fht2D.m_height;
 		m_depth = fht2D.m_depth;
 		m_palette = fht2D.m_palette;
 		
-		assert fht.length == m_maxN*m_maxN : "fht has wrong length";
+		assert fht.length == m_specWidth*m_specHeight : "fht has wrong length";
 		m_pixels = fht;
 		m_isFrequencyDomain = true;		
 	}
@@ -108,53 +143,62 @@ public class FHT extends FHT1D implements Cloneable {
 		return res;
 	}
 
+	/**
+	 * Returns the spectrum size used for an image dimension of n pixels. Powers of 2 use the fast radix-2 Hartley
+	 * transform, other lengths are computed with the mixed-radix or Bluestein FFT, which is more expensive for real data.
+	 * @param n image width or height
+	 * @return cheapest transform length >= n
+	 */
+	public static int spectrumSize(int n) {
+		return FFTPlan.paddedSize(n, MixedRadixCost);
+	}
+
 	/**
 	 * Performs a forward transform, converting this image into the frequency
-	 * domain. The image contained in this FHT2D must be square and its width must
-	 * be a power of 2.
+	 * domain.
 	 */
 	public void transform() {
-		rc2DFHT(m_pixels, false, m_maxN);
+		rc2DFHT(m_pixels, false);
 		m_isFrequencyDomain = true;
 	}
 
 	/**
 	 * Performs an inverse transform, converting this image into the space
-	 * domain. The image contained in this FHT2D must be square and its width must
-	 * be a power of 2.
+	 * domain.
 	 */
 	public void inverseTransform() {
-		rc2DFHT(m_pixels, true, m_maxN);
+		rc2DFHT(m_pixels, true);
 		m_isFrequencyDomain = false;
 	}
 
-	/** Performs a 2D FHT (Fast Hartley Transform). */
-	private void rc2DFHT(float[] x, boolean inverse, int maxN) {
-		initializeTables(maxN);
-		for (int row = 0; row < maxN; row++)
-			dfht3(x, row*maxN, inverse, maxN);
-		transposeR(x, maxN);
-		for (int row = 0; row < maxN; row++)
-			dfht3(x, row * maxN, inverse, maxN);
-		transposeR(x, maxN);
+	/** Performs a 2D FHT (Fast Hartley Transform). Rows and columns are transformed in parallel. */
+	private void rc2DFHT(float[] x, boolean inverse) {
+		final int w = m_specWidth, h = m_specHeight;
+		final FFTPlan rowPlan = plan(w), colPlan = plan(h);
+		float[] t = new float[w*h];
+		
+		Parallel.For(0, h, row -> dht(x, row*w, inverse, rowPlan));
+		transpose(x, w, h, t);
+		Parallel.For(0, w, col -> dht(t, col*h, inverse, colPlan));
+		transpose(t, h, w, x);
 
-		int mRow, mCol;
-		float A, B, C, D, E;
-		for (int row = 0; row <= maxN / 2; row++) { // Now calculate actual Hartley transform
-			for (int col = 0; col <= maxN / 2; col++) {
-				mRow = (maxN - row) % maxN;
-				mCol = (maxN - col) % maxN;
-				A = x[row * maxN + col]; // see Bracewell, 'Fast 2D Hartley Transf.' IEEE Procs. 9/86
-				B = x[mRow * maxN + col];
-				C = x[row * maxN + mCol];
-				D = x[mRow * maxN + mCol];
-				E = ((A + D) - (B + C)) / 2;
-				x[row * maxN + col] = A - E;
-				x[mRow * maxN + col] = B + E;
-				x[row * maxN + mCol] = C + E;
-				x[mRow * maxN + mCol] = D - E;
+		// rows row and h - row are processed by the same task
+		Parallel.For(0, h/2 + 1, row -> { // Now calculate actual Hartley transform
+			final int mRow = (h - row) % h;
+			
+			for (int col = 0; col <= w / 2; col++) {
+				final int mCol = (w - col) % w;
+				final float A = x[row * w + col]; // see Bracewell, 'Fast 2D Hartley Transf.' IEEE Procs. 9/86
+				final float B = x[mRow * w + col];
+				final float C = x[row * w + mCol];
+				final float D = x[mRow * w + mCol];
+				final float E = ((A + D) - (B + C)) / 2;
+				x[row * w + col] = A - E;
+				x[mRow * w + col] = B + E;
+				x[row * w + mCol] = C + E;
+				x[mRow * w + mCol] = D - E;
 			}
-		}
+		});
 	}
 
 	public ImageData getImage() {
@@ -166,7 +210,7 @@ public class FHT extends FHT1D implements Cloneable {
 				outData.data[oPos++] = (byte)ImageProcessing.clamp8(m_pixels[iPos++]);	// unsigned values
 				//outData.data[oPos++] = (byte)ImageProcessing.signedClamp8(pixels[iPos++]);	// signed values				
 			}
-			iPos += m_maxN - outData.width;
+			iPos += m_specWidth - outData.width;
 			oPos += outData.bytesPerLine - outData.width;
 		}
 		
@@ -177,24 +221,52 @@ public class FHT extends FHT1D implements Cloneable {
 		if (!m_isFrequencyDomain)
 			throw new  IllegalArgumentException("Frequency domain image required");
 		
-		Complex[][] G = new Complex[m_maxN][m_maxN];
+		Complex[][] G = new Complex[m_specHeight][m_specWidth];
 
 		int base = 0;
-		for (int row = 0; row < m_maxN; row++) {
-	        final int offs = ((m_maxN - row)%m_maxN)*m_maxN;
+		for (int row = 0; row < m_specHeight; row++) {
+	        final int offs = ((m_specHeight - row)%m_specHeight)*m_specWidth;
 	        
-	        for (int col = 0; col < m_maxN; col++) {
+	        for (int col = 0; col < m_specWidth; col++) {
 	        	final int omegaPlus = base + col;
-	        	final int omegaNeg = offs + ((m_maxN - col)%m_maxN);
+	        	final int omegaNeg = offs + ((m_specWidth - col)%m_specWidth);
 	        	
 	        	// compute FT using FHT
 	        	G[row][col] = new Complex((m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5, (-m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5);
 	        }
-	        base += m_maxN;
+	        base += m_specWidth;
 		}
 		return G;
 	}
 
+	/**
+	 * Computes the Fourier spectrum from the Hartley spectrum
+	 * @param re output real parts in row-major order
+	 * @param im output imaginary parts in row-major order
+	 */
+	public void getSpectrum(double[] re, double[] im) {
+		if (!m_isFrequencyDomain)
+			throw new  IllegalArgumentException("Frequency domain image required");
+		
+		int base = 0;
+		for (int row = 0; row < m_specHeight; row++) {
+	        final int offs = ((m_specHeight - row)%m_specHeight)*m_specWidth;
+	        
+	        for (int col = 0; col < m_specWidth; col++) {
+	        	final int omegaPlus = base + col;
+	        	final int omegaNeg = offs + ((m_specWidth - col)%m_specWidth);
+	        	
+	        	// compute FT using FHT
+	        	re[omegaPlus] = (m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5;
+	        	im[omegaPlus] = (-m_pixels[omegaPlus] + m_pixels[omegaNeg])*0.5;
+	        }
+	        base += m_specWidth;
+		}
+	}
+	
+	public int getSpectrumWidth() { return m_specWidth; }
+	public int getSpectrumHeight() { return m_specHeight; }
+
 	/*void changeValues(ImageData inData, int v1, int v2, int v3) {
 		for (int i=0; i < pixels.length; i++) {
 			int v = inData.data[i] & 0xFF;
@@ -222,21 +294,21 @@ public class FHT extends FHT1D implements Cloneable {
 	FHT multiply(FHT fht, boolean conjugate) {
 		float[] p1 = m_pixels;
 		float[] p2 = fht.m_pixels;
-		float[] tmp = new float[m_maxN*m_maxN];
+		float[] tmp = new float[m_specWidth*m_specHeight];
 		
-		for (int r = 0; r < m_maxN; r++) {
-			final int rowMod = (m_maxN - r) % m_maxN;
+		Parallel.For(0, m_specHeight, r -> {
+			final int rowMod = (m_specHeight - r) % m_specHeight;
 			
-			for (int c = 0; c < m_maxN; c++) {
-				final int colMod = (m_maxN - c) % m_maxN;
-				final double h2e = (p2[r*m_maxN + c] + p2[rowMod*m_maxN + colMod])/2;
-				final double h2o = (p2[r*m_maxN + c] - p2[rowMod*m_maxN + colMod])/2;
+			for (int c = 0; c < m_specWidth; c++) {
+				final int colMod = (m_specWidth - c) % m_specWidth;
+				final double h2e = (p2[r*m_specWidth + c] + p2[rowMod*m_specWidth + colMod])/2;
+				final double h2o = (p2[r*m_specWidth + c] - p2[rowMod*m_specWidth + colMod])/2;
 				if (conjugate) 
-					tmp[r*m_maxN + c] = (float)(p1[r*m_maxN + c]*h2e - p1[rowMod*m_maxN + colMod]*h2o);
+					tmp[r*m_specWidth + c] = (float)(p1[r*m_specWidth + c]*h2e - p1[rowMod*m_specWidth + colMod]*h2o);
 				else
-					tmp[r*m_maxN + c] = (float)(p1[r*m_maxN + c]*h2e + p1[rowMod*m_maxN + colMod]*h2o);
+					tmp[r*m_specWidth + c] = (float)(p1[r*m_specWidth + c]*h2e + p1[rowMod*m_specWidth + colMod]*h2o);
 			}
-		}
+		});
 		return new FHT(this, tmp);
 	}
 		
@@ -247,22 +319,22 @@ public class FHT extends FHT1D implements Cloneable {
 	public FHT divide(FHT fht) {
 		float[] p1 = m_pixels;
 		float[] p2 = fht.m_pixels;
-		float[] out = new float[m_maxN*m_maxN];
+		float[] out = new float[m_specWidth*m_specHeight];
 		
-		for (int r = 0; r < m_maxN; r++) {
-			final int rowMod = (m_maxN - r) % m_maxN;
+		Parallel.For(0, m_specHeight, r -> {
+			final int rowMod = (m_specHeight - r) % m_specHeight;
 			
-			for (int c = 0; c < m_maxN; c++) {
-				final int colMod = (m_maxN - c) % m_maxN;
+			for (int c = 0; c < m_specWidth; c++) {
+				final int colMod = (m_specWidth - c) % m_specWidth;
 				
-				double mag = p2[r*m_maxN + c] * p2[r*m_maxN + c] + p2[rowMod*m_maxN + colMod]*p2[rowMod*m_maxN + colMod];
+				double mag = p2[r*m_specWidth + c] * p2[r*m_specWidth + c] + p2[rowMod*m_specWidth + colMod]*p2[rowMod*m_specWidth + colMod];
 				if (mag < 1e-20) mag = 1e-20;
-				final double h2e = (p2[r*m_maxN + c] + p2[rowMod*m_maxN + colMod]);
-				final double h2o = (p2[r*m_maxN + c] - p2[rowMod*m_maxN + colMod]);
-				final double tmp = (p1[r*m_maxN + c]*h2e - p1[rowMod*m_maxN + colMod]*h2o);
-				out[r*m_maxN + c] = (float)(tmp/mag);
+				final double h2e = (p2[r*m_specWidth + c] + p2[rowMod*m_specWidth + colMod]);
+				final double h2o = (p2[r*m_specWidth + c] - p2[rowMod*m_specWidth + colMod]);
+				final double tmp = (p1[r*m_specWidth + c]*h2e - p1[rowMod*m_specWidth + colMod]*h2o);
+				out[r*m_specWidth + c] = (float)(tmp/mag);
 			}
-		}
+		});
 		return new FHT(this, out);
 	}
 	
@@ -273,7 +345,8 @@ public class FHT extends FHT1D implements Cloneable {
 			if (m_width != fht.m_width) return false;
 			if (m_height != fht.m_height) return false;
 			if (m_isFrequencyDomain != fht.m_isFrequencyDomain) return false;
-			if (m_maxN != fht.m_maxN) return false;
+			if (m_specWidth != fht.m_specWidth) return false;
+			if (m_specHeight != fht.m_specHeight) return false;
 			if (m_depth != fht.m_depth) return false;
 			final int size = m_height*m_width;
 			for(int i = 0; i < size; i++) {
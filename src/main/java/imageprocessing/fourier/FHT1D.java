@@ -1,57 +1,38 @@
 package imageprocessing.fourier;
 
+import utils.Parallel;
+
 /**
  * This class contains a Java implementation of the Fast Hartley Transform. It
  * is based on Pascal code in NIH Image contributed by Arlo Reeves
  * (http://imagej.nih.gov/ij/docs/ImageFFT/). The Fast Hartley Transform was
  * restricted by U.S. Patent No. 4,646,256, but was placed in the public domain
  * by Stanford University in 1995 and is now freely available.
+ * The transforms are stateless: the tables are shared read-only plans and the scratch buffers are
+ * taken from the plan's pool, hence several rows can be transformed concurrently.
  */
 public class FHT1D {
-	private float[] m_tempArr;
-	private int[] m_bitrev;
-	private float[] m_C;
-	private float[] m_S;
-	
-	void initializeTables(int maxN) {
-		if (m_S == null) {
-			makeSinCosTables(maxN);
-			makeBitReverseTable(maxN);
-			m_tempArr = new float[maxN];
-		}
-	}
-
-	void makeSinCosTables(int maxN) {
-		int n = maxN / 4;
-		m_C = new float[n];
-		m_S = new float[n];
-		double theta = 0.0;
-		double dTheta = 2.0 * Math.PI / maxN;
-		for (int i = 0; i < n; i++) {
-			m_C[i] = (float) Math.cos(theta);
-			m_S[i] = (float) Math.sin(theta);
-			theta += dTheta;
-		}
-	}
-
-	void makeBitReverseTable(int maxN) {
-		m_bitrev = new int[maxN];
-		int nLog2 = log2(maxN);
-		for (int i = 0; i < maxN; i++)
-			m_bitrev[i] = bitRevX(i, nLog2);
+	/**
+	 * Returns the shared plan used by dht for transform length n
+	 * @param n transform length
+	 * @return Hartley plan for powers of 2 >= 4, otherwise forward FFT plan
+	 */
+	static FFTPlan plan(int n) {
+		return FFTPlan.get(n, (n >= 4 && FFTPlan.isPowerOf2(n)) ? FFTPlan.Kind.Hartley : FFTPlan.Kind.Forward);
 	}
 
-	/** Performs an optimized 1D FHT. */
-	void dfht3(float[] x, int base, boolean inverse, int maxN) {
+	/** Performs an optimized 1D FHT of length plan.m_n. */
+	static void dfht3(float[] x, int base, boolean inverse, FFTPlan plan) {
 		int i, stage, gpNum, gpSize, numGps, Nlog2;
 		int bfNum, numBfs;
 		int Ad0, Ad1, Ad2, Ad3, Ad4, CSAd;
 		float rt1, rt2, rt3, rt4;
 
-		if (m_S == null)
-			initializeTables(maxN);
+		assert plan.m_kind == FFTPlan.Kind.Hartley : "Hartley plan expected";
+		final int maxN = plan.m_n;
+		final float[] C = plan.m_hartleyCos, S = plan.m_hartleySin;
 		Nlog2 = log2(maxN);
-		bitRevRArr(x, base, Nlog2, maxN); // bitReverse the input array
+		plan.bitReverse(x, base); // bitReverse the input array
 		gpSize = 2; // first & second stages - do radix 4 butterflies once thru
 		numGps = maxN / 4;
 		for (gpNum = 0; gpNum < numGps; gpNum++) {
@@ -96,8 +77,8 @@ public class FHT1D {
 						Ad4 = Ad3 + gpSize;
 
 						CSAd = bfNum * numGps;
-						rt1 = x[base + Ad2] * m_C[CSAd] + x[base + Ad4] * m_S[CSAd];
-						rt2 = x[base + Ad4] * m_C[CSAd] - x[base + Ad2] * m_S[CSAd];
+						rt1 = x[base + Ad2] * C[CSAd] + x[base + Ad4] * S[CSAd];
+						rt2 = x[base + Ad4] * C[CSAd] - x[base + Ad2] * S[CSAd];
 
 						x[base + Ad2] = x[base + Ad1] - rt1;
 						x[base + Ad1] = x[base + Ad1] + rt1;
@@ -118,22 +99,45 @@ public class FHT1D {
 		}
 	}
 
-	void transposeR(float[] x, int maxN) {
-		int r, c;
-		float rTemp;
+	/** 
+	 * Performs a 1D DHT of arbitrary length n = plan.m_n, see plan(n). Powers of 2 use dfht3, 
+	 * other lengths are computed with the FFT: H = Re(F) - Im(F). 
+	 */
+	static void dht(float[] x, int base, boolean inverse, FFTPlan plan) {
+		if (plan.m_kind == FFTPlan.Kind.Hartley) {
+			dfht3(x, base, inverse, plan);
+		} else {
+			final int n = plan.m_n;
+			final double[] re = plan.acquire(), im = plan.acquire();
+			final double scale = inverse ? 1.0/n : 1;
+			
+			for (int i = 0; i < n; i++) {
+				re[i] = x[base + i];
+				im[i] = 0;
+			}
+			FFT1D.transform(re, im, 0, plan);
+			for (int i = 0; i < n; i++) {
+				x[base + i] = (float)((re[i] - im[i])*scale);
+			}
+			plan.release(re);
+			plan.release(im);
+		}
+	}
 
-		for (r = 0; r < maxN; r++) {
-			for (c = r; c < maxN; c++) {
-				if (r != c) {
-					rTemp = x[r * maxN + c];
-					x[r * maxN + c] = x[c * maxN + r];
-					x[c * maxN + r] = rTemp;
+	/** Transposes the w x h matrix src into the h x w matrix dst (parallel and cache blocked). */
+	static void transpose(float[] src, int w, int h, float[] dst) {
+		Parallel.forTiles(w, h, FFT.TransposeBlockSize, FFT.TransposeBlockSize, tile -> {
+			for (int c = tile.m_x0; c < tile.m_x1; c++) {
+				final int oPos = c*h;
+				
+				for (int r = tile.m_y0; r < tile.m_y1; r++) {
+					dst[oPos + r] = src[r*w + c];
 				}
 			}
-		}
+		});
 	}
 
-	int log2(int x) {
+	static int log2(int x) {
 		int count = 15;
 		if (x > 32768)
 			count = 31;
@@ -142,25 +146,11 @@ public class FHT1D {
 		return count;
 	}
 
-	private boolean btst(int x, int bit) {
+	private static boolean btst(int x, int bit) {
 		// int mask = 1;
 		return ((x & (1 << bit)) != 0);
 	}
 
-	void bitRevRArr(float[] x, int base, int bitlen, int maxN) {
-		for (int i = 0; i < maxN; i++)
-			m_tempArr[i] = x[base + m_bitrev[i]];
-		for (int i = 0; i < maxN; i++)
-			x[base + i] = m_tempArr[i];
-	}
-
-	private int bitRevX(int x, int bitlen) {
-		int temp = 0;
-		for (int i = 0; i <= bitlen; i++)
-			if ((x & (1 << i)) != 0)
-				temp |= (1 << (bitlen - i - 1));
-		return temp & 0x0000ffff;
-	}
 /*
 	private int bset(int x, int bit) {
 		x |= (1 << bit);
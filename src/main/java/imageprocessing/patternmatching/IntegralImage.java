@@ -0,0 +1,78 @@
+package imageprocessing.patternmatching;
+
+import imageprocessing.planar.GrayU8;
+import utils.Parallel;
+
+/**
+ * Summed-area tables of the pixel values and of the squared pixel values.
+ * The sum and the sum of squares of any rectangle can be computed in O(1).
+ */
+public class IntegralImage {
+    private static final int BAND_WIDTH = 1024;  // number of columns accumulated by one task
+
+    public final int m_width, m_height;  // image size
+    private final long[] m_sum;          // (width + 1)*(height + 1) table with zero first row and column
+    private final long[] m_sqSum;        // same for the squared values
+
+    /**
+     * Creates the tables in two parallel passes: prefix sums along the rows, then along the columns
+     * @param img input image
+     */
+    public IntegralImage(GrayU8 img) {
+        m_width = img.m_width;
+        m_height = img.m_height;
+
+        final int stride = m_width + 1;
+        m_sum = new long[stride * (m_height + 1)];
+        m_sqSum = new long[m_sum.length];
+
+        Parallel.For(0, m_height, y -> {
+            final int row = img.index(0, y);
+            final int pos = (y + 1) * stride + 1;
+            long s = 0, sq = 0;
+
+            for (int x = 0; x < m_width; x++) {
+                final int p = img.m_data[row + x] & 0xFF;
+                s += p;
+                sq += p * p;
+                m_sum[pos + x] = s;
+                m_sqSum[pos + x] = sq;
+            }
+        });
+
+        Parallel.For(1, stride, BAND_WIDTH, 1, x0 -> {
+            final int x1 = Math.min(x0 + BAND_WIDTH, stride);
+
+            for (int y = 2; y <= m_height; y++) {
+                final int pos = y * stride;
+
+                for (int x = x0; x < x1; x++) {
+                    m_sum[pos + x] += m_sum[pos - stride + x];
+                    m_sqSum[pos + x] += m_sqSum[pos - stride + x];
+                }
+            }
+        });
+    }
+
+    /**
+     * @return sum of the pixel values in the rectangle (x, y, w, h)
+     */
+    public long sum(int x, int y, int w, int h) {
+        return rect(m_sum, x, y, w, h);
+    }
+
+    /**
+     * @return sum of the squared pixel values in the rectangle (x, y, w, h)
+     */
+    public long sqSum(int x, int y, int w, int h) {
+        return rect(m_sqSum, x, y, w, h);
+    }
+
+    private long rect(long[] table, int x, int y, int w, int h) {
+        final int stride = m_width + 1;
+        final int top = y * stride + x;
+        final int bottom = (y + h) * stride + x;
+
+        return table[bottom + w] - table[bottom] - table[top + w] + table[top];
+    }
+}
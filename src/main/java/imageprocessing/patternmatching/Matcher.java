@@ -0,0 +1,186 @@
+package imageprocessing.patternmatching;
+
+import imageprocessing.ROI;
+import imageprocessing.planar.GrayU8;
+
+/**
+ * Correlation coefficient between a pattern and the image windows of the same size.
+ * The pattern statistics are computed once. The window statistics are taken from an integral image if available.
+ */
+class Matcher {
+    static final int BLOCK_ROWS = 4;  // number of pattern rows between two elimination tests
+
+    final GrayU8 m_image;
+    final IntegralImage m_integral;  // null: window statistics are computed together with the cross-correlation
+    final int[] m_pattern;           // pattern values in row order
+    final int m_width, m_height;     // pattern size
+    final int m_size;                // number of pattern pixels
+    final double m_mean;             // mean of the pattern values
+    final double m_norm;             // sqrt(size)*standard deviation of the pattern values
+    final double[] m_restSum;        // m_restSum[j]: sum of the mean free pattern values of the rows j..height-1
+    final double[] m_restNorm;       // m_restNorm[j]: norm of the mean free pattern values of the rows j..height-1
+
+    Matcher(GrayU8 image, IntegralImage integral, ROI pattern) {
+        m_image = image;
+        m_integral = integral;
+        m_width = pattern.getWidth();
+        m_height = pattern.getHeight();
+        m_size = m_width * m_height;
+        m_pattern = new int[m_size];
+
+        long sum = 0;
+        for (int j = 0; j < m_height; j++) {
+            for (int i = 0; i < m_width; i++) {
+                final int p = pattern.getPixel(i, j);
+                m_pattern[j * m_width + i] = p;
+                sum += p;
+            }
+        }
+        m_mean = (double) sum / m_size;
+
+        double norm = 0;
+        for (int p : m_pattern) {
+            norm += (p - m_mean) * (p - m_mean);
+        }
+        m_norm = Math.sqrt(norm);
+
+        m_restSum = new double[m_height + 1];
+        m_restNorm = new double[m_height + 1];
+        double restSqSum = 0;
+        for (int j = m_height - 1; j >= 0; j--) {
+            double rowSum = 0, rowSqSum = 0;
+
+            for (int i = 0; i < m_width; i++) {
+                final double p = m_pattern[j * m_width + i] - m_mean;
+                rowSum += p;
+                rowSqSum += p * p;
+            }
+            m_restSum[j] = m_restSum[j + 1] + rowSum;
+            restSqSum += rowSqSum;
+            m_restNorm[j] = Math.sqrt(restSqSum);
+        }
+    }
+
+    /**
+     * @return number of window positions in x-direction
+     */
+    int positionsX() {
+        return m_image.m_width - m_width + 1;
+    }
+
+    /**
+     * @return number of window positions in y-direction
+     */
+    int positionsY() {
+        return m_image.m_height - m_height + 1;
+    }
+
+    /**
+     * Correlation coefficient of the window at (x,y) computed in the spatial domain
+     */
+    double correlation(int x, int y) {
+        if (m_integral != null) {
+            return correlation(x, y, crossCorrelation(x, y));
+        }
+
+        final byte[] data = m_image.m_data;
+        long product = 0, sum = 0, sqSum = 0;
+
+        for (int j = 0; j < m_height; j++) {
+            final int row = m_image.index(x, y + j);
+            final int patternRow = j * m_width;
+            int rowProduct = 0, rowSum = 0, rowSqSum = 0;
+
+            for (int i = 0; i < m_width; i++) {
+                final int p = data[row + i] & 0xFF;
+                rowProduct += p * m_pattern[patternRow + i];
+                rowSum += p;
+                rowSqSum += p * p;
+            }
+            product += rowProduct;
+            sum += rowSum;
+            sqSum += rowSqSum;
+        }
+        return coefficient(product, sum, sqSum);
+    }
+
+    /**
+     * Correlation coefficient of the window at (x,y) with successive elimination.
+     * After every block of pattern rows the achievable correlation is bounded by the Cauchy-Schwarz inequality
+     * applied to the remaining rows. The window statistics of the remaining rows are taken from the integral image.
+     * @param threshold the window is abandoned if it can't exceed this correlation
+     * @return correlation coefficient or -infinity if the window has been abandoned
+     */
+    double correlationBounded(int x, int y, double threshold) {
+        final long sum = m_integral.sum(x, y, m_width, m_height);
+        final long sqSum = m_integral.sqSum(x, y, m_width, m_height);
+        final double mean = (double) sum / m_size;
+        final double variance = sqSum - sum * mean;
+
+        if (variance <= 0) return 0;
+
+        final double limit = threshold * Math.sqrt(variance) * m_norm;
+        final byte[] data = m_image.m_data;
+        long product = 0;
+
+        for (int j0 = 0; j0 < m_height; j0 += BLOCK_ROWS) {
+            final int j1 = Math.min(j0 + BLOCK_ROWS, m_height);
+
+            for (int j = j0; j < j1; j++) {
+                final int row = m_image.index(x, y + j);
+                final int patternRow = j * m_width;
+                int rowSum = 0;
+
+                for (int i = 0; i < m_width; i++) {
+                    rowSum += (data[row + i] & 0xFF) * m_pattern[patternRow + i];
+                }
+                product += rowSum;
+            }
+            if (j1 < m_height) {
+                // rows j1..height-1: sum(I*P') = sum((I - mean)*P') + mean*sum(P') <= |I - mean|*|P'| + mean*sum(P')
+                final long restSum = m_integral.sum(x, y + j1, m_width, m_height - j1);
+                final long restSqSum = m_integral.sqSum(x, y + j1, m_width, m_height - j1);
+                final double restVariance = restSqSum - mean * (2 * restSum - mean * (m_height - j1) * m_width);
+                final double done = product - m_mean * (sum - restSum);
+                final double bound = done + Math.sqrt(Math.max(0, restVariance)) * m_restNorm[j1] + mean * m_restSum[j1];
+
+                if (bound < limit) return Double.NEGATIVE_INFINITY;
+            }
+        }
+        return coefficient(product, sum, sqSum);
+    }
+
+    /**
+     * Correlation coefficient of the window at (x,y) for a given cross-correlation
+     * @param product sum of the products of the pattern values and the window values
+     */
+    double correlation(int x, int y, double product) {
+        return coefficient(product, m_integral.sum(x, y, m_width, m_height), m_integral.sqSum(x, y, m_width, m_height));
+    }
+
+    private double coefficient(double product, long sum, long sqSum) {
+        final double variance = sqSum - (double) sum * sum / m_size;
+
+        return (variance > 0) ? (product - sum * m_mean) / (Math.sqrt(variance) * m_norm) : 0;
+    }
+
+    /**
+     * Sum of the products of the pattern values and the image values in the window at (x,y)
+     */
+    long crossCorrelation(int x, int y) {
+        final byte[] data = m_image.m_data;
+        long sum = 0;
+
+        for (int j = 0; j < m_height; j++) {
+            final int row = m_image.index(x, y + j);
+            final int patternRow = j * m_width;
+            int rowSum = 0;
+
+            for (int i = 0; i < m_width; i++) {
+                rowSum += (data[row + i] & 0xFF) * m_pattern[patternRow + i];
+            }
+            sum += rowSum;
+        }
+        return sum;
+    }
+}
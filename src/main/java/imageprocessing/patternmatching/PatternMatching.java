@@ -5,8 +5,16 @@ import gui.RectTracker;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
 import imageprocessing.ROI;
+import imageprocessing.filter.GaussPyramid;
+import imageprocessing.fourier.FFT;
+import imageprocessing.planar.GrayU8;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import main.Picsi;
 
@@ -15,7 +23,9 @@ import org.eclipse.swt.graphics.*;
 import org.eclipse.swt.widgets.Display;
 
 import utils.BoundedPQ;
+import utils.FrequencyDomain;
 import utils.Parallel;
+import utils.TopK;
 
 /**
  * Pattern matching based on correlation coefficient
@@ -47,13 +57,13 @@ public class PatternMatching implements IImageProcessor {
     @Override
     public ImageData run(ImageData inData, int imageType) {
         // let the user choose the operation
-        Object[] operations = {"Pattern Matching", "PM with modified Pattern", "User defined Pattern"};
+        Object[] operations = {"Pattern Matching", "PM with modified Pattern", "User defined Pattern", "Coarse-to-fine PM", "PM with successive elimination"};
         int f = OptionPane.showOptionDialog("Pattern Matching Operation", SWT.ICON_INFORMATION, operations, 0);
         if (f < 0) return null;
 
         final int intensityOffset = -50;
         final int contrastFactor = 4;
-        final boolean predefinedPattern = f < 2;
+        final boolean predefinedPattern = f != 2;
 
         // pattern region
         Rectangle pr = null;
@@ -68,7 +78,7 @@ public class PatternMatching implements IImageProcessor {
         }
 
         final int nResults = 10 * 10;    // search nResults best matches
-        final ROI pattern = new ROI((f > 0) ? (ImageData) inData.clone() : inData, pr);
+        final ROI pattern = new ROI((f == 1 || f == 2) ? (ImageData) inData.clone() : inData, pr);
         final int pw = pattern.getWidth();
         final int ph = pattern.getHeight();
 
@@ -86,7 +96,20 @@ public class PatternMatching implements IImageProcessor {
         }
 
         // pattern matching
-        BoundedPQ<PMResult> results = pm(inData, pattern, nResults);
+        BoundedPQ<PMResult> results;
+
+        if (f == 3) {
+            Integer levels = OptionPane.showIntegerDialog("Pyramid levels", 3);
+            if (levels == null || levels < 1) return null;
+            Integer nCandidates = OptionPane.showIntegerDialog("Number of candidates", nResults);
+            if (nCandidates == null || nCandidates < 1) return null;
+
+            results = pmPyramid(inData, pattern, nResults, levels, nCandidates);
+        } else if (f == 4) {
+            results = pm(inData, pattern, nResults, true);
+        } else {
+            results = pm(inData, pattern, nResults);
+        }
 
         // create output
         ImageData outData = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_RGB);
@@ -102,8 +125,16 @@ public class PatternMatching implements IImageProcessor {
         return createOutput(outData, results, nResults);
     }
 
+    private static final int MIN_PATTERN_SIZE = 8;      // minimum pattern width and height on the coarsest pyramid level
+    private static final int REFINEMENT_RADIUS = 2;     // refinement window on a finer pyramid level: +-radius around the candidate
+
+    // relative cost of one FFT butterfly compared to one multiply-add of the spatial correlation (measured)
+    private static final double FFT_COST_FACTOR = 3;
+
     /**
-     * Pattern matching based on correlation coefficient
+     * Pattern matching based on correlation coefficient.
+     * The mean and the variance of every image window are computed in O(1) with integral images.
+     * The cross-correlation is either computed in the spatial domain or, for large patterns, in the frequency domain.
      *
      * @param inData
      * @param pattern
@@ -111,58 +142,277 @@ public class PatternMatching implements IImageProcessor {
      * @return results
      */
     public static BoundedPQ<PMResult> pm(ImageData inData, ROI pattern, int nResults) {
-        final int patternWidth = pattern.getWidth();
-        final int patternHeight = pattern.getHeight();
-        final int size = patternHeight * patternWidth;
-        BoundedPQ<PMResult> results = new BoundedPQ<>(nResults);
+        return pm(inData, pattern, nResults, false);
+    }
+
+    /**
+     * Pattern matching based on correlation coefficient.
+     * With successive elimination, every window is abandoned as soon as it can't beat the k-th best correlation
+     * found so far by any thread. Successive elimination always uses the spatial domain.
+     *
+     * @param inData
+     * @param pattern
+     * @param nResults number of best results
+     * @param successiveElimination
+     * @return results
+     */
+    public static BoundedPQ<PMResult> pm(ImageData inData, ROI pattern, int nResults, boolean successiveElimination) {
+        final GrayU8 image = GrayU8.wrap(inData);
+        final Matcher matcher = new Matcher(image, new IntegralImage(image), pattern);
+        if (matcher.positionsX() <= 0 || matcher.positionsY() <= 0) return new BoundedPQ<>(nResults); // pattern doesn't fit into image
+
+        final int patternWidth = matcher.m_width;
+        final int patternHeight = matcher.m_height;
+        final double[][] products = !successiveElimination && useFrequencyDomain(inData.width, inData.height, patternWidth, patternHeight)
+                ? crossCorrelationFFT(inData, matcher.m_pattern, patternWidth, patternHeight)
+                : null;
+        final AtomicLong sharedThreshold = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+        final TopK best = new TopK(nResults);
 
-        // Pre-Calculations
-        double meanPattern = 0;
+        // calculation of correlation coefficient
+        Parallel.For(0, matcher.positionsY(), () -> new TopK(nResults), (yImage, topK) -> {
+            for (int xImage = 0; xImage < matcher.positionsX(); xImage++) {
+                final double correlationCoefficient;
+
+                if (products != null) {
+                    correlationCoefficient = matcher.correlation(xImage, yImage, products[yImage][xImage]);
+                } else if (successiveElimination) {
+                    // the k-th best score of any thread is a lower bound of the final k-th best score
+                    final double threshold = Math.max(topK.threshold(), Double.longBitsToDouble(sharedThreshold.get()));
+                    correlationCoefficient = matcher.correlationBounded(xImage, yImage, threshold);
+                } else {
+                    correlationCoefficient = matcher.correlation(xImage, yImage);
+                }
 
-        for (int j = 0; j < patternHeight; j++) {
-            for (int i = 0; i < patternWidth; i++) {
-                meanPattern += pattern.getPixel(i, j);
+                if (topK.accepts(correlationCoefficient)) {
+                    topK.add(correlationCoefficient, yImage * inData.width + xImage);
+                    if (successiveElimination) raise(sharedThreshold, topK.threshold());
+                }
             }
+        }, best::addAll);
+
+        return toResults(best, inData, patternWidth, patternHeight);
+    }
+
+    /**
+     * Matches several patterns in one pass over the image. The integral images are shared by all patterns.
+     * The window positions are processed in tiles, and every tile is matched against all patterns
+     * while its image region is still in the cache.
+     *
+     * @param inData
+     * @param patterns
+     * @param nResults number of best results per pattern
+     * @param successiveElimination
+     * @return results in the order of patterns
+     */
+    public static List<BoundedPQ<PMResult>> pmBatch(ImageData inData, List<ROI> patterns, int nResults, boolean successiveElimination) {
+        final GrayU8 image = GrayU8.wrap(inData);
+        final IntegralImage integral = new IntegralImage(image);
+        final int n = patterns.size();
+        final Matcher[] matchers = new Matcher[n];
+        int maxX = 0, maxY = 0;
+
+        for (int t = 0; t < n; t++) {
+            matchers[t] = new Matcher(image, integral, patterns.get(t));
+            maxX = Math.max(maxX, matchers[t].positionsX());
+            maxY = Math.max(maxY, matchers[t].positionsY());
         }
-        meanPattern = meanPattern / size;
 
-        double standardDeviationPattern = 0;
+        final int tileSize = Parallel.DefaultTileSize;
+        final int tilesX = (maxX + tileSize - 1) / tileSize;
+        final int tilesY = (maxY + tileSize - 1) / tileSize;
+        final TopK[] best = new TopK[n];
+        final AtomicLong[] sharedThresholds = new AtomicLong[n];
 
-        for (int j = 0; j < patternHeight; j++) {
-            for (int i = 0; i < patternWidth; i++) {
-                standardDeviationPattern += Math.pow(pattern.getPixel(i, j) - meanPattern, 2);
+        for (int t = 0; t < n; t++) {
+            best[t] = new TopK(nResults);
+            sharedThresholds[t] = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+        }
+
+        Parallel.For(0, tilesX * tilesY, () -> {
+            TopK[] topK = new TopK[n];
+            for (int t = 0; t < n; t++) topK[t] = new TopK(nResults);
+            return topK;
+        }, (tile, topK) -> {
+            final int x0 = (tile % tilesX) * tileSize;
+            final int y0 = (tile / tilesX) * tileSize;
+
+            for (int t = 0; t < n; t++) {
+                final Matcher matcher = matchers[t];
+                if (matcher.positionsX() <= 0 || matcher.positionsY() <= 0) continue; // pattern doesn't fit into image
+
+                final int x1 = Math.min(x0 + tileSize, matcher.positionsX());
+                final int y1 = Math.min(y0 + tileSize, matcher.positionsY());
+
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        final double cl;
+
+                        if (successiveElimination) {
+                            // the k-th best score of any thread is a lower bound of the final k-th best score
+                            final double threshold = Math.max(topK[t].threshold(), Double.longBitsToDouble(sharedThresholds[t].get()));
+                            cl = matcher.correlationBounded(x, y, threshold);
+                        } else {
+                            cl = matcher.correlation(x, y);
+                        }
+
+                        if (topK[t].accepts(cl)) {
+                            topK[t].add(cl, y * inData.width + x);
+                            if (successiveElimination) raise(sharedThresholds[t], topK[t].threshold());
+                        }
+                    }
+                }
             }
+        }, topK -> {
+            for (int t = 0; t < n; t++) best[t].addAll(topK[t]);
+        });
+
+        List<BoundedPQ<PMResult>> results = new ArrayList<>(n);
+        for (int t = 0; t < n; t++) {
+            results.add(toResults(best[t], inData, matchers[t].m_width, matchers[t].m_height));
         }
-        standardDeviationPattern = Math.sqrt(standardDeviationPattern / size);
+        return results;
+    }
 
-        // calculation of correlation coefficient
-        for (int xImage = 0; xImage < inData.width - patternWidth + 1; xImage++) {
-            for (int yImage = 0; yImage < inData.height - patternHeight + 1; yImage++) {
+    /**
+     * Atomically raises a shared threshold stored as double bits
+     */
+    private static void raise(AtomicLong shared, double threshold) {
+        long current = shared.get();
 
-                int intensityProduct = 0;
-                int intensityImageSquared = 0;
-                double intensityImageAverage = 0;
+        while (threshold > Double.longBitsToDouble(current) && !shared.compareAndSet(current, Double.doubleToLongBits(threshold))) {
+            current = shared.get();
+        }
+    }
 
-                for (int xPattern = 0; xPattern < patternWidth; xPattern++) {
-                    for (int yPattern = 0; yPattern < patternHeight; yPattern++) {
-                        int intensityImage = inData.getPixel(xImage + xPattern, yImage + yPattern);
-                        int intensityPattern = pattern.getPixel(xPattern, yPattern);
+    /**
+     * Creates the result objects of the best positions
+     * @param best scores with position ids y*width + x
+     * @param imageData image of the positions
+     * @return results
+     */
+    private static BoundedPQ<PMResult> toResults(TopK best, ImageData imageData, int patternWidth, int patternHeight) {
+        BoundedPQ<PMResult> results = new BoundedPQ<>(best.capacity());
+
+        for (int i = 0; i < best.size(); i++) {
+            final int id = best.getId(i);
+            final Rectangle r = new Rectangle(id % imageData.width, id / imageData.width, patternWidth, patternHeight);
+
+            results.add(new PMResult(new ROI(imageData, r), best.getScore(i)));
+        }
+        return results;
+    }
+
+    /**
+     * Coarse-to-fine pattern matching. The full search runs on the coarsest level of a Gaussian pyramid only.
+     * The best candidates are refined in small windows on every finer level.
+     *
+     * @param inData
+     * @param pattern
+     * @param nResults number of best results
+     * @param levels number of pyramid levels, is reduced if the pattern would become too small
+     * @param nCandidates number of candidates refined on the finer levels
+     * @return results
+     */
+    public static BoundedPQ<PMResult> pmPyramid(ImageData inData, ROI pattern, int nResults, int levels, int nCandidates) {
+        final int pw = pattern.getWidth();
+        final int ph = pattern.getHeight();
+        if (pw > inData.width || ph > inData.height) return new BoundedPQ<>(nResults); // pattern doesn't fit into image
+
+        int l = 1;
+        while (l < levels && Math.min(pw, ph) >> l >= MIN_PATTERN_SIZE) l++;
+        levels = l;
+
+        // pattern as image of its own
+        ImageData patternData = new ImageData(pw, ph, 8, inData.palette);
+        for (int v = 0; v < ph; v++) {
+            for (int u = 0; u < pw; u++) {
+                patternData.data[v * patternData.bytesPerLine + u] = (byte) pattern.getPixel(u, v);
+            }
+        }
 
-                        intensityProduct += intensityImage * intensityPattern;
-                        intensityImageAverage += intensityImage;
-                        intensityImageSquared += Math.pow(intensityImage, 2);
+        final GaussPyramid imagePyramid = new GaussPyramid(inData, levels);
+        final GaussPyramid patternPyramid = new GaussPyramid(patternData, levels);
+
+        // full search on the coarsest level
+        BoundedPQ<PMResult> candidates = pm(imagePyramid.getLevel(levels - 1), fullROI(patternPyramid.getLevel(levels - 1)),
+                (levels == 1) ? nResults : nCandidates);
+
+        // refinement
+        for (l = levels - 2; l >= 0; l--) {
+            final ImageData level = imagePyramid.getLevel(l);
+            final Matcher matcher = new Matcher(GrayU8.wrap(level), null, fullROI(patternPyramid.getLevel(l)));
+            final int k = (l == 0) ? nResults : nCandidates;
+            final Set<Integer> visited = ConcurrentHashMap.newKeySet();
+            final ArrayList<PMResult> coarse = new ArrayList<>();
+            final TopK refined = new TopK(k);
+
+            for (PMResult r : candidates) coarse.add(r);
+            Parallel.For(0, coarse.size(), () -> new TopK(k), (i, topK) -> {
+                final Rectangle r = coarse.get(i).m_roi.m_rect;
+                final int x0 = Math.max(0, 2 * r.x - REFINEMENT_RADIUS);
+                final int x1 = Math.min(matcher.positionsX() - 1, 2 * r.x + REFINEMENT_RADIUS);
+                final int y0 = Math.max(0, 2 * r.y - REFINEMENT_RADIUS);
+                final int y1 = Math.min(matcher.positionsY() - 1, 2 * r.y + REFINEMENT_RADIUS);
+
+                for (int y = y0; y <= y1; y++) {
+                    for (int x = x0; x <= x1; x++) {
+                        final int id = y * level.width + x;
+
+                        if (visited.add(id)) {
+                            final double cl = matcher.correlation(x, y);
+                            if (topK.accepts(cl)) topK.add(cl, id);
+                        }
                     }
                 }
+            }, refined::addAll);
+            candidates = toResults(refined, level, matcher.m_width, matcher.m_height);
+        }
+
+        return candidates;
+    }
 
-                intensityImageAverage = intensityImageAverage / size;
-                double correlationCoefficient = (intensityProduct - size * intensityImageAverage * meanPattern) /
-                        (Math.sqrt(intensityImageSquared - size * Math.pow(intensityImageAverage, 2)) * standardDeviationPattern * Math.sqrt(size));
+    private static ROI fullROI(ImageData imageData) {
+        return new ROI(imageData, new Rectangle(0, 0, imageData.width, imageData.height));
+    }
 
-                results.add(new PMResult(new ROI(inData, new Rectangle(xImage, yImage, patternWidth, patternHeight)), correlationCoefficient));
+    /**
+     * Compares the estimated costs of the spatial and the frequency domain cross-correlation
+     * @return true if the frequency domain is expected to be faster
+     */
+    public static boolean useFrequencyDomain(int width, int height, int patternWidth, int patternHeight) {
+        if (patternWidth > width || patternHeight > height) return false;
+
+        final double spatial = (double) (width - patternWidth + 1) * (height - patternHeight + 1) * patternWidth * patternHeight;
+        final double n = (double) FFT.spectrumSize(width) * FFT.spectrumSize(height);
+
+        // three 2D transforms: image, pattern, inverse
+        return FFT_COST_FACTOR * 3 * n * Math.log(n) / Math.log(2) < spatial;
+    }
+
+    /**
+     * Sum of the products of the pattern values and the image values for all windows, computed in the frequency domain.
+     * The correlation is the convolution with the point-mirrored pattern. The transforms are cyclic,
+     * but windows inside the image never wrap around.
+     * @return products[y][x] of the window at (x,y)
+     */
+    private static double[][] crossCorrelationFFT(ImageData inData, int[] pattern, int patternWidth, int patternHeight) {
+        final FrequencyDomain image = FFT.rfft2D(inData);
+        final int w = image.getSpectrumWidth();
+        final int h = image.getSpectrumHeight();
+
+        // point-mirrored pattern: (i,j) -> (-i mod w, -j mod h)
+        ImageData mirrored = new ImageData(w, h, 8, inData.palette);
+        for (int j = 0; j < patternHeight; j++) {
+            final int row = ((h - j) % h) * mirrored.bytesPerLine;
+
+            for (int i = 0; i < patternWidth; i++) {
+                mirrored.data[row + (w - i) % w] = (byte) pattern[j * patternWidth + i];
             }
         }
 
-        return results;
+        image.multiply(FFT.rfft2D(mirrored));
+        return FFT.ifft2Dreal(image);
     }
 
     /**
@@ -174,7 +424,17 @@ public class PatternMatching implements IImageProcessor {
      * @return
      */
     private ImageData createOutput(ImageData outData, BoundedPQ<PMResult> pq, int nResults) {
+        // drawing into an image requires the user-interface thread
+        return Picsi.syncExec(() -> drawOutput(outData, pq, nResults));
+    }
+
+    private ImageData drawOutput(ImageData outData, BoundedPQ<PMResult> pq, int nResults) {
         ArrayList<PMResult> results = new ArrayList<>();
+        ArrayList<PMResult> sorted = new ArrayList<>(pq.size());
+
+        // sort once instead of removing the maximum n times
+        for (PMResult pm : pq) sorted.add(pm);
+        sorted.sort(Collections.reverseOrder());
 
         // create image and write text into image
         Display display = Picsi.s_shell.getDisplay();
@@ -186,20 +446,18 @@ public class PatternMatching implements IImageProcessor {
         gc.setBackground(new Color(display, 255, 255, 255)); // white
         gc.setFont(new Font(display, "Segoe UI", 8, 0));
 
-        for (int i = 0; i < nResults; i++) {
-            final PMResult pm = pq.removeMax();
+        for (int i = 0; i < Math.min(nResults, sorted.size()); i++) {
+            final PMResult pm = sorted.get(i);
+            int j = 0;
 
-            if (pm != null) {
-                int j = 0;
-                while (j < results.size() && !pm.m_roi.overlaps(results.get(j).m_roi)) j++;
-                if (j == results.size()) {
-                    final Rectangle r = pm.m_roi.m_rect;
+            while (j < results.size() && !pm.m_roi.overlaps(results.get(j).m_roi)) j++;
+            if (j == results.size()) {
+                final Rectangle r = pm.m_roi.m_rect;
 
-                    results.add(pm);
+                results.add(pm);
 
-                    gc.drawRectangle(r);
-                    gc.drawText(String.format("%.2f", pm.m_cl), r.x, r.y + r.height, true);
-                }
+                gc.drawRectangle(r);
+                gc.drawText(String.format("%.2f", pm.m_cl), r.x, r.y + r.height, true);
             }
         }
 
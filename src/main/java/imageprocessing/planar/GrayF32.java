@@ -0,0 +1,114 @@
+package imageprocessing.planar;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+import imageprocessing.ImageProcessing;
+import imageprocessing.PixelAccess;
+import utils.Parallel;
+
+/**
+ * Single channel image with 32 bit floating point values
+ */
+public class GrayF32 extends Plane {
+	public final float[] m_data;
+
+	/**
+	 * Creates a new image initialized with 0
+	 * @param width
+	 * @param height
+	 */
+	public GrayF32(int width, int height) {
+		this(new float[width*height], width, height, 0, width);
+	}
+
+	/**
+	 * Creates a view of an existing array
+	 * @param data pixel array
+	 * @param width
+	 * @param height
+	 * @param offset array index of pixel (0,0)
+	 * @param stride distance between two vertically adjacent pixels
+	 */
+	public GrayF32(float[] data, int width, int height, int offset, int stride) {
+		super(width, height, offset, stride);
+		m_data = data;
+	}
+
+	/**
+	 * Converts the pixel values of an image into floating point values
+	 * @param imageData image of any depth (pixel values, not colors, are converted)
+	 * @return new image
+	 */
+	public static GrayF32 from(ImageData imageData) {
+		if (imageData.depth == 8) return GrayU8.wrap(imageData).toF32();
+
+		GrayF32 out = new GrayF32(imageData.width, imageData.height);
+		PixelAccess in = new PixelAccess(imageData);
+
+		Parallel.For(0, out.m_height, v -> {
+			final int[] row = new int[out.m_width];
+			int o = out.index(0, v);
+
+			in.getRow(v, row);
+			for (int u = 0; u < out.m_width; u++) {
+				out.m_data[o++] = row[u];
+			}
+		});
+		return out;
+	}
+
+	public float get(int u, int v) {
+		return m_data[m_offset + v*m_stride + u];
+	}
+
+	public void set(int u, int v, float val) {
+		m_data[m_offset + v*m_stride + u] = val;
+	}
+
+	/**
+	 * Returns a view of the rectangle (x, y, w, h) sharing the pixel array
+	 * @return sub-image
+	 */
+	public GrayF32 subimage(int x, int y, int w, int h) {
+		checkSubimage(x, y, w, h);
+		return new GrayF32(m_data, w, h, index(x, y), m_stride);
+	}
+
+	/**
+	 * Rounds and clamps the values to [0,255]
+	 * @return new image
+	 */
+	public GrayU8 toU8() {
+		GrayU8 out = new GrayU8(m_width, m_height);
+
+		Parallel.For(0, m_height, v -> {
+			int i = index(0, v);
+			int o = out.index(0, v);
+
+			for (int u = 0; u < m_width; u++) {
+				out.m_data[o++] = (byte)ImageProcessing.clamp8(m_data[i++]);
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Returns an 8 bit image with rounded and clamped values
+	 * @param palette e.g. gray scale palette
+	 * @return new image
+	 */
+	public ImageData toImageData(PaletteData palette) {
+		ImageData outData = new ImageData(m_width, m_height, 8, palette);
+
+		Parallel.For(0, m_height, v -> {
+			int i = index(0, v);
+			int o = v*outData.bytesPerLine;
+
+			for (int u = 0; u < m_width; u++) {
+				outData.data[o++] = (byte)ImageProcessing.clamp8(m_data[i++]);
+			}
+		});
+		return outData;
+	}
+}
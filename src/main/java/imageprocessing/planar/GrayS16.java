@@ -0,0 +1,47 @@
+package imageprocessing.planar;
+
+/**
+ * Single channel image with signed 16 bit values
+ */
+public class GrayS16 extends Plane {
+	public final short[] m_data;
+
+	/**
+	 * Creates a new image initialized with 0
+	 * @param width
+	 * @param height
+	 */
+	public GrayS16(int width, int height) {
+		this(new short[width*height], width, height, 0, width);
+	}
+
+	/**
+	 * Creates a view of an existing array
+	 * @param data pixel array
+	 * @param width
+	 * @param height
+	 * @param offset array index of pixel (0,0)
+	 * @param stride distance between two vertically adjacent pixels
+	 */
+	public GrayS16(short[] data, int width, int height, int offset, int stride) {
+		super(width, height, offset, stride);
+		m_data = data;
+	}
+
+	public int get(int u, int v) {
+		return m_data[m_offset + v*m_stride + u];
+	}
+
+	public void set(int u, int v, int val) {
+		m_data[m_offset + v*m_stride + u] = (short)val;
+	}
+
+	/**
+	 * Returns a view of the rectangle (x, y, w, h) sharing the pixel array
+	 * @return sub-image
+	 */
+	public GrayS16 subimage(int x, int y, int w, int h) {
+		checkSubimage(x, y, w, h);
+		return new GrayS16(m_data, w, h, index(x, y), m_stride);
+	}
+}
@@ -0,0 +1,103 @@
+package imageprocessing.planar;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+import utils.Parallel;
+
+/**
+ * Single channel image with unsigned 8 bit values
+ */
+public class GrayU8 extends Plane {
+	public final byte[] m_data;
+
+	/**
+	 * Creates a new image initialized with 0
+	 * @param width
+	 * @param height
+	 */
+	public GrayU8(int width, int height) {
+		this(new byte[width*height], width, height, 0, width);
+	}
+
+	/**
+	 * Creates a view of an existing array
+	 * @param data pixel array
+	 * @param width
+	 * @param height
+	 * @param offset array index of pixel (0,0)
+	 * @param stride distance between two vertically adjacent pixels
+	 */
+	public GrayU8(byte[] data, int width, int height, int offset, int stride) {
+		super(width, height, offset, stride);
+		m_data = data;
+	}
+
+	/**
+	 * Wraps the pixel buffer of an 8 bit image without copying.
+	 * Changes of the returned image are visible in imageData and vice versa.
+	 * @param imageData image with depth 8
+	 * @return view of imageData
+	 */
+	public static GrayU8 wrap(ImageData imageData) {
+		if (imageData.depth != 8) SWT.error(SWT.ERROR_UNSUPPORTED_DEPTH);
+		return new GrayU8(imageData.data, imageData.width, imageData.height, 0, imageData.bytesPerLine);
+	}
+
+	public int get(int u, int v) {
+		return m_data[m_offset + v*m_stride + u] & 0xFF;
+	}
+
+	public void set(int u, int v, int val) {
+		m_data[m_offset + v*m_stride + u] = (byte)val;
+	}
+
+	/**
+	 * Returns a view of the rectangle (x, y, w, h) sharing the pixel array
+	 * @return sub-image
+	 */
+	public GrayU8 subimage(int x, int y, int w, int h) {
+		checkSubimage(x, y, w, h);
+		return new GrayU8(m_data, w, h, index(x, y), m_stride);
+	}
+
+	/**
+	 * Converts to 32 bit floating point values
+	 * @return new image
+	 */
+	public GrayF32 toF32() {
+		GrayF32 out = new GrayF32(m_width, m_height);
+
+		Parallel.For(0, m_height, v -> {
+			int i = index(0, v);
+			int o = out.index(0, v);
+
+			for (int u = 0; u < m_width; u++) {
+				out.m_data[o++] = m_data[i++] & 0xFF;
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Returns an 8 bit image with the given palette.
+	 * The pixel array is shared if its layout matches the 4 byte scanline padding of ImageData, otherwise it is copied.
+	 * @param palette e.g. gray scale palette
+	 * @return image data
+	 */
+	public ImageData toImageData(PaletteData palette) {
+		final int bytesPerLine = (m_width + 3)/4*4;
+
+		if (m_offset == 0 && m_stride == bytesPerLine && m_data.length == bytesPerLine*m_height) {
+			return new ImageData(m_width, m_height, 8, palette, 4, m_data);
+		} else {
+			ImageData outData = new ImageData(m_width, m_height, 8, palette);
+
+			Parallel.For(0, m_height, v -> {
+				System.arraycopy(m_data, index(0, v), outData.data, v*outData.bytesPerLine, m_width);
+			});
+			return outData;
+		}
+	}
+}
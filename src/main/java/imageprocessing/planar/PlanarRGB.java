@@ -0,0 +1,105 @@
+package imageprocessing.planar;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.ImageProcessing;
+import imageprocessing.PixelAccess;
+import main.Picsi;
+import utils.Parallel;
+
+/**
+ * RGB image stored in three separate 8 bit planes
+ */
+public class PlanarRGB {
+	public final int m_width, m_height;
+	public final GrayU8 m_r, m_g, m_b;
+
+	/**
+	 * Creates a new black image
+	 * @param width
+	 * @param height
+	 */
+	public PlanarRGB(int width, int height) {
+		this(new GrayU8(width, height), new GrayU8(width, height), new GrayU8(width, height));
+	}
+
+	/**
+	 * Creates an image of three existing planes of the same size
+	 * @param r red plane
+	 * @param g green plane
+	 * @param b blue plane
+	 */
+	public PlanarRGB(GrayU8 r, GrayU8 g, GrayU8 b) {
+		assert r.m_width == g.m_width && g.m_width == b.m_width : "different widths";
+		assert r.m_height == g.m_height && g.m_height == b.m_height : "different heights";
+		m_width = r.m_width;
+		m_height = r.m_height;
+		m_r = r;
+		m_g = g;
+		m_b = b;
+	}
+
+	/**
+	 * Splits the colors of an image into three planes. Interleaved pixels can't be shared, hence they are copied.
+	 * @param imageData image of any depth
+	 * @return new image
+	 */
+	public static PlanarRGB from(ImageData imageData) {
+		PlanarRGB out = new PlanarRGB(imageData.width, imageData.height);
+		PixelAccess in = new PixelAccess(imageData);
+
+		Parallel.For(0, out.m_height, v -> {
+			final int w = out.m_width;
+			final int[] r = new int[w], g = new int[w], b = new int[w], pixels = new int[w];
+			int o = out.m_r.index(0, v);
+
+			in.getRGBRow(v, r, g, b, pixels);
+			for (int u = 0; u < w; u++, o++) {
+				out.m_r.m_data[o] = (byte)r[u];
+				out.m_g.m_data[o] = (byte)g[u];
+				out.m_b.m_data[o] = (byte)b[u];
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Returns a view of the rectangle (x, y, w, h) sharing the pixel arrays
+	 * @return sub-image
+	 */
+	public PlanarRGB subimage(int x, int y, int w, int h) {
+		return new PlanarRGB(m_r.subimage(x, y, w, h), m_g.subimage(x, y, w, h), m_b.subimage(x, y, w, h));
+	}
+
+	/**
+	 * Returns one of the planes
+	 * @param channel 0: red, 1: green, 2: blue
+	 * @return plane
+	 */
+	public GrayU8 getChannel(int channel) {
+		switch(channel) {
+		case 0: return m_r;
+		case 1: return m_g;
+		default: return m_b;
+		}
+	}
+
+	/**
+	 * Interleaves the three planes into a 24 bit RGB image
+	 * @return new image
+	 */
+	public ImageData toImageData() {
+		ImageData outData = ImageProcessing.createImage(m_width, m_height, Picsi.IMAGE_TYPE_RGB);
+		PixelAccess out = new PixelAccess(outData);
+
+		Parallel.For(0, m_height, v -> {
+			int pos = out.offset(0, v);
+			int ir = m_r.index(0, v), ig = m_g.index(0, v), ib = m_b.index(0, v);
+
+			for (int u = 0; u < m_width; u++, pos += out.m_bytesPerPixel) {
+				out.setRGB(pos, m_r.m_data[ir++], m_g.m_data[ig++], m_b.m_data[ib++]);
+			}
+		});
+		return outData;
+	}
+}
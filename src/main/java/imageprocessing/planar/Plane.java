@@ -0,0 +1,44 @@
+package imageprocessing.planar;
+
+/**
+ * Base class of single channel images stored in one contiguous primitive array.
+ * Pixel (u,v) is stored at index m_offset + v*m_stride + u.
+ * Sub-images are views sharing the array of their parent image.
+ */
+public abstract class Plane {
+	public final int m_width, m_height;	// image size
+	public final int m_offset;			// array index of pixel (0,0)
+	public final int m_stride;			// distance between two vertically adjacent pixels
+
+	protected Plane(int width, int height, int offset, int stride) {
+		assert width >= 0 && height >= 0 : "wrong size: " + width + " x " + height;
+		assert stride >= width : "stride is smaller than width: " + stride;
+		m_width = width;
+		m_height = height;
+		m_offset = offset;
+		m_stride = stride;
+	}
+
+	/**
+	 * Returns the array index of pixel (u,v)
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return array index
+	 */
+	public int index(int u, int v) {
+		return m_offset + v*m_stride + u;
+	}
+
+	/**
+	 * @return true if the rows are stored without gaps
+	 */
+	public boolean isContiguous() {
+		return m_stride == m_width;
+	}
+
+	protected void checkSubimage(int x, int y, int w, int h) {
+		if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > m_width || y + h > m_height) {
+			throw new IndexOutOfBoundsException("sub-image (" + x + "," + y + "," + w + "," + h + ") exceeds image");
+		}
+	}
+}
@@ -7,6 +7,7 @@ import gui.TwinView;
 import java.text.MessageFormat;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.function.Supplier;
 
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.widgets.Control;
@@ -86,6 +87,20 @@ public class Picsi {
 		}
 	}
 
+	/**
+	 * Executes the supplier in the user-interface thread and returns its result.
+	 * Image processors run in a background thread and have to access dialogs and widgets by this method.
+	 * @param supplier
+	 * @return result of supplier
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T syncExec(Supplier<T> supplier) {
+		final Object[] result = new Object[1];
+		
+		s_shell.getDisplay().syncExec(() -> result[0] = supplier.get());
+		return (T)result[0];
+	}
+
 	/**
 	 * Show output in output view and sleeps for some milliseconds or until an event occurs
 	 * @param output image or null
@@ -93,34 +108,42 @@ public class Picsi {
 	 */
 	public static void showAndWait(ImageData output, int eventOrMs) {
 		if (output != null) {
-			Display display = s_shell.getDisplay();
-			getTwinView().showImageInSecondView(output);
-			Menu menuBar = s_shell.getMenuBar();
-			menuBar.setEnabled(false);
-			while (display.readAndDispatch());
-			if (eventOrMs <= 0) {
-				try {
-					Thread.sleep(-eventOrMs);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			} else {
-				boolean[] cont = new boolean[1];
-				Listener keyListener = new Listener() {
-					@Override
-					public void handleEvent(Event event) {
-						cont[0] = true;
-					}
-				};
-				display.addFilter(eventOrMs, keyListener);
-				while (!cont[0]) 
-					if (!display.readAndDispatch()) display.sleep();
-				display.removeFilter(eventOrMs, keyListener);
-			}
-			menuBar.setEnabled(true);
+			syncExec(() -> {
+				show(output, eventOrMs);
+				return null;
+			});
 		}		
 	}
 	
+	private static void show(ImageData output, int eventOrMs) {
+		Display display = s_shell.getDisplay();
+		getTwinView().showImageInSecondView(output);
+		Menu menuBar = s_shell.getMenuBar();
+		final boolean enabled = menuBar.getEnabled();
+		menuBar.setEnabled(false);
+		while (display.readAndDispatch());
+		if (eventOrMs <= 0) {
+			try {
+				Thread.sleep(-eventOrMs);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		} else {
+			boolean[] cont = new boolean[1];
+			Listener keyListener = new Listener() {
+				@Override
+				public void handleEvent(Event event) {
+					cont[0] = true;
+				}
+			};
+			display.addFilter(eventOrMs, keyListener);
+			while (!cont[0]) 
+				if (!display.readAndDispatch()) display.sleep();
+			display.removeFilter(eventOrMs, keyListener);
+		}
+		menuBar.setEnabled(enabled);
+	}
+	
 	/**
 	 * Return image type specific short name
 	 * @param imageType
@@ -1,13 +1,13 @@
 package utils;
 
-import java.util.Arrays;
-
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 
 /**
- * Frequency domain object used to store the result in Fourier Transforms
- * 
+ * Frequency domain object used to store the result in Fourier Transforms.
+ * The coefficients are stored in two contiguous planes of real and imaginary parts in row-major order:
+ * G(u,v) = m_re[v*m_stride + u] + i*m_im[v*m_stride + u].
+ *
  * @author Christoph Stamm
  *
  */
@@ -17,20 +17,20 @@ public class FrequencyDomain implements Cloneable {
 	public double m_powerScale;		// scale factor used in power spectrum, 0 = undefined scale
 	public double m_min;			// log of min transformed value
 	public PaletteData m_palette;	// image palette
-	public Complex[][] m_g;			// transformed image
-	
+	public double[] m_re, m_im;		// transformed image: full spectrum or non-redundant half of the spectrum of a real image
+	public int m_stride;			// number of stored columns per row
+	private int m_spectrumWidth;	// width of the full spectrum, a half spectrum stores m_spectrumWidth/2 + 1 columns
+	private int m_spectrumHeight;	// height of the spectrum
+	private int m_shiftU, m_shiftV;	// view offset: position (u,v) refers to the stored position ((u + m_shiftU) mod w, (v + m_shiftV) mod h)
+
 	/**
 	 * @param inData input image
 	 * @param g Fourier coefficients
 	 */
 	public FrequencyDomain(ImageData inData, Complex[][] g) {
-		m_width = inData.width;
-		m_height = inData.height;
-		m_depth = inData.depth;
-		m_palette = inData.palette;
-		m_g = g;
+		this(inData, inData.width, inData.height, g[0].length, g);
 	}
-	
+
 	/**
 	 * @param inData input image
 	 * @param width output width
@@ -38,11 +38,53 @@ public class FrequencyDomain implements Cloneable {
 	 * @param g Fourier coefficients
 	 */
 	public FrequencyDomain(ImageData inData, int width, int height, Complex[][] g) {
+		this(inData, width, height, g[0].length, g);
+	}
+
+	/**
+	 * Half spectrum of a real image: the columns u > spectrumWidth/2 are the complex conjugates
+	 * of the stored columns, G(u,v) = conj(G(spectrumWidth - u, -v)).
+	 * @param inData input image
+	 * @param width output width
+	 * @param height output height
+	 * @param spectrumWidth width of the full spectrum
+	 * @param g Fourier coefficients of the columns [0, spectrumWidth/2]
+	 */
+	public FrequencyDomain(ImageData inData, int width, int height, int spectrumWidth, Complex[][] g) {
+		this(inData, width, height, spectrumWidth, g[0].length, new double[g.length*g[0].length], new double[g.length*g[0].length]);
+
+		Parallel.For(0, g.length, v -> {
+			final int pos = v*m_stride;
+
+			for (int u = 0; u < m_stride; u++) {
+				m_re[pos + u] = g[v][u].m_re;
+				m_im[pos + u] = g[v][u].m_im;
+			}
+		});
+	}
+
+	/**
+	 * Wraps planes of real and imaginary parts without copying
+	 * @param inData input image
+	 * @param width output width
+	 * @param height output height
+	 * @param spectrumWidth width of the full spectrum
+	 * @param stride number of stored columns: spectrumWidth or spectrumWidth/2 + 1 for a half spectrum
+	 * @param re real parts in row-major order
+	 * @param im imaginary parts in row-major order
+	 */
+	public FrequencyDomain(ImageData inData, int width, int height, int spectrumWidth, int stride, double[] re, double[] im) {
+		assert stride == spectrumWidth || stride == spectrumWidth/2 + 1 : "wrong number of columns";
+		assert re.length == im.length && re.length%stride == 0 : "wrong plane size";
 		m_width = width;
 		m_height = height;
 		m_depth = inData.depth;
 		m_palette = inData.palette;
-		m_g = g;
+		m_re = re;
+		m_im = im;
+		m_stride = stride;
+		m_spectrumWidth = spectrumWidth;
+		m_spectrumHeight = re.length/stride;
 	}
 
 	/**
@@ -50,36 +92,28 @@ public class FrequencyDomain implements Cloneable {
 	 * @param fd
 	 */
 	public FrequencyDomain(FrequencyDomain fd) {
-		m_width = fd.m_width;
-		m_height = fd.m_height;
-		m_depth = fd.m_depth;
-		m_palette = fd.m_palette;
-		m_powerScale = fd.m_powerScale;
-		m_min = fd.m_min;
-		m_g = new Complex[fd.m_g.length][];
-		
-		Parallel.For(0, m_g.length, v -> {
-			m_g[v] = Arrays.copyOf(fd.m_g[v], fd.m_g[v].length);
-		});
+		this(fd, fd.m_re.clone(), fd.m_im.clone());
 	}
-	
-	private FrequencyDomain() {	
-	}
-	
-	private FrequencyDomain(FrequencyDomain fd, boolean dummy) {
+
+	/**
+	 * Copies all attributes of fd but the planes
+	 */
+	private FrequencyDomain(FrequencyDomain fd, double[] re, double[] im) {
 		m_width = fd.m_width;
 		m_height = fd.m_height;
 		m_depth = fd.m_depth;
 		m_palette = fd.m_palette;
 		m_powerScale = fd.m_powerScale;
 		m_min = fd.m_min;
-		m_g = new Complex[fd.m_g.length][];	
-		
-		Parallel.For(0, m_g.length, v -> {
-			m_g[v] = new Complex[fd.m_g[v].length];
-		});
+		m_re = re;
+		m_im = im;
+		m_stride = fd.m_stride;
+		m_spectrumWidth = fd.m_spectrumWidth;
+		m_spectrumHeight = fd.m_spectrumHeight;
+		m_shiftU = fd.m_shiftU;
+		m_shiftV = fd.m_shiftV;
 	}
-	
+
 	/**
 	 * Returns amplitude at given position
 	 * @param u x-coordinate
@@ -87,9 +121,21 @@ public class FrequencyDomain implements Cloneable {
 	 * @return amplitude
 	 */
 	public double getAmplitude(int u, int v) {
-		return m_g[v][u].abs();
+		final int i = index(u, v);
+		return Math.hypot(m_re[i], m_im[i]);
 	}
-	
+
+	/**
+	 * Returns power (squared amplitude) at given position
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return power
+	 */
+	public double getPower(int u, int v) {
+		final int i = index(u, v);
+		return m_re[i]*m_re[i] + m_im[i]*m_im[i];
+	}
+
 	/**
 	 * Returns phase at given position
 	 * @param u x-coordinate
@@ -97,37 +143,179 @@ public class FrequencyDomain implements Cloneable {
 	 * @return phase
 	 */
 	public double getPhase(int u, int v) {
-		return m_g[v][u].arg();
+		final int i = index(u, v);
+		if (isStored(u, v)) return Math.atan2(m_im[i], m_re[i]);
+		else return -Math.atan2(m_im[i], m_re[i]);
 	}
-	
-	public int getSpectrumWidth() { return m_g[0].length; }
-	public int getSpectrumHeight() { return m_g.length; }
-	
+
+	/**
+	 * Compatibility accessor: returns a copy of the coefficient at given position
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return coefficient
+	 */
+	public Complex get(int u, int v) {
+		final int i = index(u, v);
+		return new Complex(m_re[i], isStored(u, v) ? m_im[i] : -m_im[i]);
+	}
+
 	/**
-	 * Sets amplitude and phase at given position
+	 * Compatibility accessor: sets the coefficient at given position. In a half spectrum, the conjugate position is set, too.
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @param c coefficient
+	 */
+	public void set(int u, int v, Complex c) {
+		store(u, v, c.m_re, c.m_im);
+	}
+
+	public int getSpectrumWidth() { return m_spectrumWidth; }
+	public int getSpectrumHeight() { return m_spectrumHeight; }
+
+	/**
+	 * @return true if only the non-redundant half of the spectrum is stored
+	 */
+	public boolean isHalfSpectrum() {
+		return m_stride < m_spectrumWidth;
+	}
+
+	/**
+	 * Returns true if the coefficient at given position is stored in the planes.
+	 * In a half spectrum, (u,v) and its conjugate position share one coefficient, hence loops
+	 * over all positions should skip the positions that aren't stored.
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return true if the coefficient of the position is stored and not its conjugate
+	 */
+	public boolean isStored(int u, int v) {
+		return shiftU(u) < m_stride;
+	}
+
+	/**
+	 * Returns the plane index of the coefficient at given position or of its conjugate position
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @return index in m_re and m_im
+	 */
+	private int index(int u, int v) {
+		u = shiftU(u);
+		v = shiftV(v);
+		if (u < m_stride) return v*m_stride + u;
+		else return mirrorV(v)*m_stride + m_spectrumWidth - u;
+	}
+
+	/**
+	 * @param u x-coordinate in [0, w)
+	 * @return stored x-coordinate
+	 */
+	private int shiftU(int u) {
+		u += m_shiftU;
+		return (u >= m_spectrumWidth) ? u - m_spectrumWidth : u;
+	}
+
+	/**
+	 * @param v y-coordinate in [0, h)
+	 * @return stored y-coordinate
+	 */
+	private int shiftV(int v) {
+		v += m_shiftV;
+		return (v >= m_spectrumHeight) ? v - m_spectrumHeight : v;
+	}
+
+	/**
+	 * Sets amplitude and phase at given position. In a half spectrum, the conjugate position is set, too.
 	 * @param u x-coordinate
 	 * @param v y-coordinate
 	 * @param amp amplitude
 	 * @param phi phase
 	 */
-	public void setValue(int u, int v, double amp, double phi) { 
-		m_g[v][u] = new Complex(amp*Math.cos(phi), amp*Math.sin(phi));
+	public void setValue(int u, int v, double amp, double phi) {
+		store(u, v, amp*Math.cos(phi), amp*Math.sin(phi));
 	}
-	
+
+	/**
+	 * Sets the coefficient at given position and keeps a half spectrum Hermitian: 
+	 * the self-conjugate columns 0 and w/2 store (u,v) and its conjugate position (u,h-v) separately, hence both are set.
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @param re real part
+	 * @param im imaginary part
+	 */
+	private void store(int u, int v, double re, double im) {
+		final int i = index(u, v);
+		final boolean stored = isStored(u, v);
+		
+		m_re[i] = re;
+		m_im[i] = stored ? im : -im;
+		if (stored && isHalfSpectrum()) {
+			final int su = shiftU(u);
+			
+			if (su == 0 || 2*su == m_spectrumWidth) {
+				final int sv = shiftV(v);
+				final int mv = mirrorV(sv);
+				
+				if (mv != sv) {
+					final int j = mv*m_stride + su;
+					m_re[j] = re;
+					m_im[j] = -im;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the full spectrum
+	 * @return this if the full spectrum is stored, otherwise a new frequency domain object with mirrored coefficients
+	 */
+	public FrequencyDomain toFullSpectrum() {
+		if (!isHalfSpectrum()) return this;
+
+		final int w = m_spectrumWidth;
+		final int h = m_spectrumHeight;
+		FrequencyDomain fd = new FrequencyDomain(this, new double[w*h], new double[w*h]);
+		fd.m_stride = w;
+
+		Parallel.For(0, h, v -> {
+			final int src = v*m_stride;
+			final int mirror = mirrorV(v)*m_stride;
+			final int dst = v*w;
+
+			System.arraycopy(m_re, src, fd.m_re, dst, m_stride);
+			System.arraycopy(m_im, src, fd.m_im, dst, m_stride);
+			for (int u = m_stride; u < w; u++) {
+				fd.m_re[dst + u] = m_re[mirror + w - u];
+				fd.m_im[dst + u] = -m_im[mirror + w - u];
+			}
+		});
+		return fd;
+	}
+
+	/**
+	 * @param v y-coordinate
+	 * @return y-coordinate of the conjugate position
+	 */
+	private int mirrorV(int v) {
+		return (v == 0) ? 0 : m_spectrumHeight - v;
+	}
+
 	/**
 	 * Return power spectral density
 	 * @return
 	 */
 	public double meanPower() {
 		double[] sum = new double[1];
-		
-		Parallel.For(0, m_g.length, 
+
+		Parallel.For(0, m_spectrumHeight,
 			// creator
 			() -> new double[1],
 			// loop body
 			(v, s) -> {
-				for (int u = 0; u < m_g[v].length; u++) {
-					s[0] += m_g[v][u].abs2();
+				final int pos = v*m_stride;
+
+				for (int u = 0; u < m_stride; u++) {
+					// mirrored columns of a half spectrum are counted twice
+					final int weight = (u > 0 && u < m_spectrumWidth - m_stride + 1) ? 2 : 1;
+					s[0] += weight*(m_re[pos + u]*m_re[pos + u] + m_im[pos + u]*m_im[pos + u]);
 				}
 			},
 			// reducer
@@ -143,8 +331,22 @@ public class FrequencyDomain implements Cloneable {
 		return new FrequencyDomain(this);
 	}
 
-	/**	
-	 * Swap quadrants B and D and A and C  
+	/**
+	 * Returns a view with swapped quadrants, so the power spectrum origin is at the center, see swapQuadrants.
+	 * The view shares the coefficients with this object, nothing is copied. Only the position based accessors
+	 * (getAmplitude, getPower, getPhase, get, set, setValue, multiply(u,v,d), isStored) see the centred spectrum; 
+	 * transforms and point by point operations work on the stored coefficients.
+	 * @return view of the centred spectrum
+	 */
+	public FrequencyDomain shifted() {
+		FrequencyDomain fd = new FrequencyDomain(this, m_re, m_im);
+		fd.m_shiftU = shiftU(m_spectrumWidth - m_spectrumWidth/2);
+		fd.m_shiftV = shiftV(m_spectrumHeight - m_spectrumHeight/2);
+		return fd;
+	}
+
+	/**
+	 * Swap quadrants B and D and A and C
 	 * so the power spectrum origin is at the center.
 	<pre>
 	    B A
@@ -154,139 +356,133 @@ public class FrequencyDomain implements Cloneable {
 	 * B.h = ceil(h/2) = h1
 	 * D.w = floor(w/2) = w2
 	 * D.h = floor(h/2) = h2
+	 * A half spectrum is converted to a full spectrum before swapping. 
+	 * Use shifted() to get a view without copying.
 	 * @return specturm with swapped quadrants
 	 */
 	public FrequencyDomain swapQuadrants() {
-		final int w = getSpectrumWidth();
-		final int h = getSpectrumHeight();
-		FrequencyDomain fd = new FrequencyDomain();
-		fd.m_width = m_width;
-		fd.m_height = m_height;
-		fd.m_depth = m_depth;
-		fd.m_palette = m_palette;
-		fd.m_powerScale = m_powerScale;
-		fd.m_min = m_min;
-		fd.m_g = new Complex[h][w];
-		
-		final int w2 = w/2,  w1 = w - w2;
-		final int h2 = h/2, h1 = h - h2;
+		if (isHalfSpectrum()) return toFullSpectrum().swapQuadrants();
 
-		Parallel.For(0, h2, v -> {
-			final int h1v = h1 + v;
-			final int h2v = h2 + v;
-			
-			for(int u = 0; u < w2; u++) {
-				fd.m_g[v][u] = m_g[h1v][w1 + u];
-				fd.m_g[v][w2 + u] = m_g[h1v][u];
-				fd.m_g[h2v][u] = m_g[v][w1 + u];
-				fd.m_g[h2v][w2 + u] = m_g[v][u];
-			}
+		final int w = m_spectrumWidth;
+		final int h = m_spectrumHeight;
+		FrequencyDomain fd = new FrequencyDomain(this, new double[w*h], new double[w*h]);
+
+		final int w2 = w/2;
+		final int h2 = h/2;
+
+		// output row v is input row (v + h1) mod h, output column u is input column (u + w1) mod w
+		Parallel.For(0, h, v -> {
+			final int src = ((v + h - h2)%h)*w;
+			final int dst = v*w;
+
+			System.arraycopy(m_re, src + w - w2, fd.m_re, dst, w2);
+			System.arraycopy(m_re, src, fd.m_re, dst + w2, w - w2);
+			System.arraycopy(m_im, src + w - w2, fd.m_im, dst, w2);
+			System.arraycopy(m_im, src, fd.m_im, dst + w2, w - w2);
 		});
-		if (h1 != h2) {
-			final int h22 = h2 << 1;
-			for(int u = 0; u < w2; u++) {
-				fd.m_g[h22][u] = m_g[h2][w1 + u];
-				fd.m_g[h22][w2 + u] = m_g[h2][u];
-			}
-		}
-		if (w1 != w2) {
-			final int w22 = w2 << 1;
-			for(int v = 0; v < h2; v++) {
-				fd.m_g[v][w22] = m_g[h1 + v][w2];
-				fd.m_g[h2 + v][w22] = m_g[v][w2];
-			}
-			if (h1 != h2) {
-				final int h22 = h2 << 1;
-				fd.m_g[h22][w22] = m_g[h2][w2];
-			}
-		}
-		
 		return fd;
 	}
-	
+
+	/**
+	 * Multiplies the coefficient at given position. In a half spectrum, the conjugate position shares the same coefficient.
+	 * @param u x-coordinate
+	 * @param v y-coordinate
+	 * @param d factor
+	 */
 	public void multiply(int u, int v, double d) {
-		m_g[v][u].multiply(d);
+		final int i = index(u, v);
+		m_re[i] *= d;
+		m_im[i] *= d;
 	}
-	
+
+	/**
+	 * In-place multiplication of all coefficients
+	 * @param d factor
+	 */
 	public void multiply(double d) {
-		Parallel.For(0, m_g.length, v -> {
-			for(int u = 0; u < m_g[v].length; u++) {
-				m_g[v][u].multiply(d);
+		Parallel.For(0, m_spectrumHeight, v -> {
+			for (int i = v*m_stride; i < (v + 1)*m_stride; i++) {
+				m_re[i] *= d;
+				m_im[i] *= d;
 			}
 		});
 	}
-	
+
+	/**
+	 * In-place point by point multiplication: convolution in the space domain
+	 * @param fd frequency domain object with the same layout
+	 */
 	public void multiply(FrequencyDomain fd) {
-		assert m_g.length == fd.m_g.length;
-		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				m_g[v][u].multiply(fd.m_g[v][u]);
-			}
-		});
+		multiply(fd, false);
 	}
 
-	public FrequencyDomain mul(double d) {
-		FrequencyDomain fd = new FrequencyDomain(this, true);
-		
-		Parallel.For(0, m_g.length, v -> {
-			for(int u = 0; u < m_g[v].length; u++) {
-				fd.m_g[v][u] = m_g[v][u].mul(d);
-			}
-		});
-		return fd;
+	/**
+	 * In-place point by point multiplication with the complex conjugate of fd: correlation in the space domain
+	 * @param fd frequency domain object with the same layout
+	 */
+	public void conjugateMultiply(FrequencyDomain fd) {
+		multiply(fd, true);
 	}
-	
-	public FrequencyDomain mul(FrequencyDomain fd2) {
-		assert m_g.length == fd2.m_g.length;
-		FrequencyDomain fd = new FrequencyDomain(this, true);
-		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd2.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				fd.m_g[v][u] = m_g[v][u].mul(fd2.m_g[v][u]);
+
+	private void multiply(FrequencyDomain fd, boolean conjugate) {
+		assert m_stride == fd.m_stride && m_spectrumHeight == fd.m_spectrumHeight : "different spectrum layouts";
+		assert m_shiftU == fd.m_shiftU && m_shiftV == fd.m_shiftV : "different views";
+		final double sign = conjugate ? -1 : 1;
+
+		Parallel.For(0, m_spectrumHeight, v -> {
+			for (int i = v*m_stride; i < (v + 1)*m_stride; i++) {
+				final double re2 = fd.m_re[i], im2 = sign*fd.m_im[i];
+				final double re = m_re[i]*re2 - m_im[i]*im2;
+				m_im[i] = m_re[i]*im2 + m_im[i]*re2;
+				m_re[i] = re;
 			}
 		});
-		return fd;
 	}
 
+	/**
+	 * In-place point by point division: deconvolution in the space domain. Division by zero results in zero.
+	 * @param fd frequency domain object with the same layout
+	 */
 	public void divide(FrequencyDomain fd) {
-		assert m_g.length == fd.m_g.length;
+		assert m_stride == fd.m_stride && m_spectrumHeight == fd.m_spectrumHeight : "different spectrum layouts";
+		assert m_shiftU == fd.m_shiftU && m_shiftV == fd.m_shiftV : "different views";
+
+		Parallel.For(0, m_spectrumHeight, v -> {
+			for (int i = v*m_stride; i < (v + 1)*m_stride; i++) {
+				final double re2 = fd.m_re[i], im2 = fd.m_im[i];
+				final double den = re2*re2 + im2*im2;
 
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				if (fd.m_g[v][u].abs2() == 0) {
+				if (den == 0) {
 					// division by zero
-					m_g[v][u].m_re = 0;
-					m_g[v][u].m_im = 0;
+					m_re[i] = 0;
+					m_im[i] = 0;
 				} else {
-					m_g[v][u].divide(fd.m_g[v][u]);
+					final double re = (m_re[i]*re2 + m_im[i]*im2)/den;
+					m_im[i] = (m_im[i]*re2 - m_re[i]*im2)/den;
+					m_re[i] = re;
 				}
 			}
 		});
 	}
-		
+
+	public FrequencyDomain mul(double d) {
+		FrequencyDomain fd = clone();
+		fd.multiply(d);
+		return fd;
+	}
+
+	public FrequencyDomain mul(FrequencyDomain fd2) {
+		FrequencyDomain fd = clone();
+		fd.multiply(fd2);
+		return fd;
+	}
+
 	public FrequencyDomain div(FrequencyDomain fd2) {
-		assert m_g.length == fd2.m_g.length;
-		FrequencyDomain fd = new FrequencyDomain(this, true);
-		
-		Parallel.For(0, m_g.length, v -> {
-			assert m_g[v].length == fd2.m_g[v].length;
-			for(int u = 0; u < m_g[v].length; u++) {
-				if (fd2.m_g[v][u].abs2() == 0) {
-					// division by zero
-					m_g[v][u].m_re = 0;
-					m_g[v][u].m_im = 0;
-				} else {
-					fd.m_g[v][u] = m_g[v][u].div(fd2.m_g[v][u]);
-				}
-			}
-		});
+		FrequencyDomain fd = clone();
+		fd.divide(fd2);
 		return fd;
 	}
-		
+
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof FrequencyDomain) {
@@ -296,16 +492,18 @@ public class FrequencyDomain implements Cloneable {
 			if (m_powerScale != fd.m_powerScale) return false;
 			if (m_min != fd.m_min) return false;
 			if (m_palette != fd.m_palette) return false;
-			for(int i = 0; i < m_height; i++) {
-				for(int j = 0; j < m_width; j++) {
-					if (!m_g[i][j].equals(fd.m_g[i][j])) 
-						return false;
-				}
+			if (m_spectrumWidth != fd.m_spectrumWidth) return false;
+			if (m_spectrumHeight != fd.m_spectrumHeight) return false;
+			if (m_stride != fd.m_stride) return false;
+			if (m_shiftU != fd.m_shiftU || m_shiftV != fd.m_shiftV) return false;
+			for(int i = 0; i < m_re.length; i++) {
+				if (m_re[i] != fd.m_re[i] || m_im[i] != fd.m_im[i])
+					return false;
 			}
 			return true;
 		} else {
 			return false;
 		}
 	}
-	
+
 }
@@ -3,9 +3,13 @@ package utils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Parallel for loop
+ * All loops share one lazily created work-stealing pool (ForkJoinPool),
+ * hence a loop doesn't pay for thread creation and tear down.
  * 
  * @author Christoph Stamm
  *
@@ -31,12 +35,314 @@ public class Parallel {
 	    void run(T data);
 	}
 	
-	private static class ReductionData<T> {
-		Future<?> future;
-		T data;
+	public static interface TileBody {
+		void run(Tile tile);
+	}
+	
+	/**
+	 * Rectangular part of an image used in tiled loops
+	 */
+	public static class Tile {
+		public int m_x0, m_y0, m_x1, m_y1;		// tile: semi-open ranges [m_x0, m_x1) x [m_y0, m_y1)
+		public int m_hx0, m_hy0, m_hx1, m_hy1;	// tile enlarged by the halo and clipped to the image
+		
+		public int getWidth() { return m_x1 - m_x0; }
+		public int getHeight() { return m_y1 - m_y0; }
+	}
+	
+	public static interface ProgressListener {
+		/**
+		 * Is called with done = 0 in the starting thread when a top-level loop with total > 0 iterations starts,
+		 * and concurrently in worker threads after each executed part of the loop.
+		 * Top-level loops started in the same thread run one after another, hence the start report of a loop
+		 * follows all reports of the previous loop.
+		 * @param done number of executed iterations
+		 * @param total number of iterations of the loop
+		 */
+		void progress(int done, int total);
+	}
+	
+	/**
+	 * Cancellation token and progress reporting of parallel loops.
+	 * A monitor is bound to a thread with setMonitor. All loops started in this thread, 
+	 * including their nested loops, stop handing out further iterations as soon as the monitor is cancelled.
+	 * Top-level loops report their progress after each executed part of the range.
+	 */
+	public static class Monitor {
+		private volatile boolean m_cancelled;
+		private final ProgressListener m_listener;
+		
+		public Monitor() {
+			this(null);
+		}
+		
+		/**
+		 * @param listener is called when a top-level loop starts and in worker threads after each executed part of it, or null
+		 */
+		public Monitor(ProgressListener listener) {
+			m_listener = listener;
+		}
+		
+		public void cancel() {
+			m_cancelled = true;
+		}
+		
+		public boolean isCancelled() {
+			return m_cancelled;
+		}
+		
+		/**
+		 * Throws a CancellationException if this monitor has been cancelled.
+		 * Long sequential computations should call it regularly.
+		 */
+		public void checkCancelled() {
+			if (m_cancelled) throw new CancellationException("parallel loop cancelled");
+		}
+	}
+	
+	/**
+	 * Data shared by all tasks of one loop
+	 */
+	private static class LoopState {
+		final int m_start, m_delta, m_grain, m_total;
+		final Monitor m_monitor;
+		final ProgressListener m_listener;		// null for nested loops
+		final AtomicInteger m_done = new AtomicInteger();
+		final AtomicReference<Throwable> m_failure = new AtomicReference<>();
+		
+		LoopState(int start, int delta, int grain, int total) {
+			m_start = start;
+			m_delta = delta;
+			m_grain = grain;
+			m_total = total;
+			m_monitor = s_monitor.get();
+			m_listener = (m_monitor != null && !(Thread.currentThread() instanceof ForkJoinWorkerThread)) ? m_monitor.m_listener : null;
+			if (m_listener != null && total > 0) m_listener.progress(0, total);
+		}
+		
+		/**
+		 * Has to be called before a part of the range is executed
+		 * @return false if the part must be skipped, because the loop has been cancelled or another part has failed
+		 */
+		boolean enter() {
+			if (m_failure.get() != null) return false;
+			if (m_monitor != null && m_monitor.isCancelled()) {
+				m_failure.compareAndSet(null, new CancellationException("parallel loop cancelled"));
+				return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Stores the first failure of the loop
+		 * @param t
+		 */
+		void fail(Throwable t) {
+			m_failure.compareAndSet(null, t);
+		}
+		
+		/**
+		 * Reports progress after n further iterations have been executed
+		 * @param n
+		 */
+		void progress(int n) {
+			final int done = m_done.addAndGet(n);
+			if (m_listener != null) m_listener.progress(done, m_total);
+		}
+		
+		/**
+		 * Rethrows the first failure of the loop in the calling thread
+		 */
+		void rethrow() {
+			final Throwable t = m_failure.get();
+			
+			if (t instanceof RuntimeException) throw (RuntimeException)t;
+			if (t instanceof Error) throw (Error)t;
+			if (t != null) throw new CompletionException(t);
+		}
+	}
+	
+	/**
+	 * Recursively splits the iteration range [lo, hi) into two halves until its size is at most the grain size.
+	 * Idle workers steal the pending halves. Iteration k corresponds to the loop index start + k*delta.
+	 */
+	@SuppressWarnings("serial")
+	private static class ForTask extends RecursiveAction {
+		private final LoopState m_state;
+		private final int m_lo, m_hi;
+		private final IntLoopBody m_loopBody;
+		
+		ForTask(LoopState state, int lo, int hi, IntLoopBody loopBody) {
+			m_state = state;
+			m_lo = lo;
+			m_hi = hi;
+			m_loopBody = loopBody;
+		}
+		
+		@Override
+		protected void compute() {
+			if (m_hi - m_lo <= m_state.m_grain) {
+				if (!m_state.enter()) return;
+				
+				final Monitor monitor = s_monitor.get();
+				s_monitor.set(m_state.m_monitor); // nested loops inherit the monitor
+				try {
+					final int delta = m_state.m_delta;
+					int j = m_state.m_start + m_lo*delta;
+					for (int k = m_lo; k < m_hi; k++, j += delta) {
+						m_loopBody.run(j);
+					}
+				} catch (Throwable t) {
+					m_state.fail(t);
+					return;
+				} finally {
+					s_monitor.set(monitor);
+				}
+				m_state.progress(m_hi - m_lo);
+			} else {
+				final int mid = (m_lo + m_hi) >>> 1;
+				invokeAll(new ForTask(m_state, m_lo, mid, m_loopBody), new ForTask(m_state, mid, m_hi, m_loopBody));
+			}
+		}
+	}
+	
+	/**
+	 * Same splitting as ForTask, but each leaf owns its temporary reduction data. 
+	 * The leaves are kept in the task tree, so they can be reduced in range order after the loop.
+	 */
+	@SuppressWarnings("serial")
+	private static class RedForTask<T> extends RecursiveAction {
+		private final LoopState m_state;
+		private final int m_lo, m_hi;
+		private final RedDataCreator<T> m_creator;
+		private final RedLoopBody<T> m_loopBody;
+		private RedForTask<T> m_left, m_right;
+		private T m_data;
+		
+		RedForTask(LoopState state, int lo, int hi, RedDataCreator<T> creator, RedLoopBody<T> loopBody) {
+			m_state = state;
+			m_lo = lo;
+			m_hi = hi;
+			m_creator = creator;
+			m_loopBody = loopBody;
+		}
+		
+		@Override
+		protected void compute() {
+			if (m_hi - m_lo <= m_state.m_grain) {
+				if (!m_state.enter()) return;
+				
+				final Monitor monitor = s_monitor.get();
+				s_monitor.set(m_state.m_monitor); // nested loops inherit the monitor
+				try {
+					final T data = m_creator.run();
+					final int delta = m_state.m_delta;
+					int j = m_state.m_start + m_lo*delta;
+					for (int k = m_lo; k < m_hi; k++, j += delta) {
+						m_loopBody.run(j, data);
+					}
+					m_data = data;
+				} catch (Throwable t) {
+					m_state.fail(t);
+					return;
+				} finally {
+					s_monitor.set(monitor);
+				}
+				m_state.progress(m_hi - m_lo);
+			} else {
+				final int mid = (m_lo + m_hi) >>> 1;
+				m_left = new RedForTask<T>(m_state, m_lo, mid, m_creator, m_loopBody);
+				m_right = new RedForTask<T>(m_state, mid, m_hi, m_creator, m_loopBody);
+				invokeAll(m_left, m_right);
+			}
+		}
+		
+		void reduce(Reducer<T> reducer) {
+			if (m_left == null) {
+				if (m_data != null) reducer.run(m_data);
+			} else {
+				m_left.reduce(reducer);
+				m_right.reduce(reducer);
+			}
+		}
 	}
 	
 	static final int nCPU = Runtime.getRuntime().availableProcessors();
+	
+	private static int s_parallelism = nCPU;	// number of worker threads in the shared pool
+	private static volatile ForkJoinPool s_pool;	// shared worker pool, created on first use
+	private static final int TasksPerWorker = 8;	// the default grain size creates about TasksPerWorker leaf tasks per worker
+	public static final int DefaultTileSize = 64;	// 64x64 float tile fits into a typical L1 data cache
+	private static final ThreadLocal<Monitor> s_monitor = new ThreadLocal<>();	// monitor of the loops started in the current thread
+
+	/**
+	 * Returns the shared worker pool. The pool is created on first use.
+	 * @return shared worker pool
+	 */
+	public static ForkJoinPool getPool() {
+		ForkJoinPool pool = s_pool;
+		
+		if (pool == null) {
+			synchronized(Parallel.class) {
+				pool = s_pool;
+				if (pool == null) {
+					pool = new ForkJoinPool(s_parallelism);
+					s_pool = pool;
+				}
+			}
+		}
+		return pool;
+	}
+	
+	/**
+	 * Returns the number of worker threads used in parallel loops
+	 * @return parallelism
+	 */
+	public static synchronized int getParallelism() {
+		return s_parallelism;
+	}
+	
+	/**
+	 * Sets the number of worker threads used in parallel loops.
+	 * The current pool is replaced by a new pool on next use. It isn't shut down, because other threads
+	 * might still submit loops to it; its idle worker threads terminate on their own.
+	 * @param parallelism > 0
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		assert parallelism > 0 : "parallelism must be positive: " + parallelism;
+		
+		if (parallelism != s_parallelism) {
+			s_parallelism = parallelism;
+			s_pool = null;
+		}
+	}
+
+	/**
+	 * Binds a monitor to the current thread. Parallel loops started in this thread can be cancelled
+	 * and report their progress to this monitor.
+	 * @param monitor monitor or null
+	 */
+	public static void setMonitor(Monitor monitor) {
+		if (monitor == null) s_monitor.remove();
+		else s_monitor.set(monitor);
+	}
+	
+	/**
+	 * Returns the monitor bound to the current thread
+	 * @return monitor or null
+	 */
+	public static Monitor getMonitor() {
+		return s_monitor.get();
+	}
+	
+	/**
+	 * Throws a CancellationException if the monitor bound to the current thread has been cancelled.
+	 * Can be used in long sequential computations.
+	 */
+	public static void checkCancelled() {
+		final Monitor monitor = s_monitor.get();
+		if (monitor != null) monitor.checkCancelled();
+	}
 
 	/**
 	 * Parallel for each: executes the loopBody for each item in the collection
@@ -44,21 +350,12 @@ public class Parallel {
 	 * @param loopBody
 	 */
 	public static <T> void forEach(Iterable <T> collection, final LoopBody<T> loopBody) {
-	    ExecutorService executor = Executors.newFixedThreadPool(nCPU);
-	    List<Future<?>> futures  = new ArrayList<Future<?>>(nCPU);
+	    List<T> items = new ArrayList<T>();
 
 	    for (final T param : collection) {
-	    	futures.add(executor.submit(() -> loopBody.run(param) ));
+	    	items.add(param);
 	    }
-
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
+	    For(0, items.size(), 1, 1, i -> loopBody.run(items.get(i)));
 	}
 
 	/**
@@ -79,62 +376,28 @@ public class Parallel {
 	 * @param loopBody
 	 */
 	public static void For(int start, int stop, int delta, final IntLoopBody loopBody) {
-		assert delta != 0 : "delta must be not 0: " + delta;
-		
-		if (start == stop) return;
+		For(start, stop, delta, 0, loopBody);
+	}
+
+	/**
+	 * Parallel for: executes the loopBody for values in the semi-open range [start, stop) with step size delta.
+	 * The range is recursively split until a part contains at most grainSize iterations.
+	 * The first exception thrown in the loopBody stops the loop and is rethrown in the calling thread.
+	 * A cancelled monitor stops the loop with a CancellationException.
+	 * @param start != stop
+	 * @param stop
+	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
+	 * @param grainSize maximum number of iterations executed sequentially by one task, 0 = adaptive grain size
+	 * @param loopBody
+	 */
+	public static void For(int start, int stop, int delta, int grainSize, final IntLoopBody loopBody) {
+		final int n = iterations(start, stop, delta);
+		if (n == 0) return;
 		
-		ExecutorService executor = null;
-		List<Future<?>> futures = null;
+		final LoopState state = new LoopState(start, delta, (grainSize > 0) ? grainSize : defaultGrainSize(n), n);
 		
-		if (start < stop) {
-			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j < iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));     
-		    }
-		} else {
-			// start > stop
-			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j > iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));  
-	        }
-		}
-
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
+		getPool().invoke(new ForTask(state, 0, n, loopBody));
+		state.rethrow();
 	}
 
 	/**
@@ -161,74 +424,118 @@ public class Parallel {
 	 * @param reducer computes reduction of temporary reduction data and stores it in external result
 	 */
 	public static <T> void For(int start, int stop, int delta, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
-		assert delta != 0 : "delta must be not 0: " + delta;
+		For(start, stop, delta, 0, creator, loopBody, reducer);
+	}
+	
+	/**
+	 * Parallel for: executes the loopBody for each int value in the semi-open range [start, stop) with step size delta
+	 * and performs a reduction. The reducer is called sequentially in the calling thread in range order.
+	 * @param start != stop
+	 * @param stop
+	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
+	 * @param grainSize maximum number of iterations executed sequentially by one task, 0 = adaptive grain size
+	 * @param creator initializes temporary reduction data
+	 * @param loopBody
+	 * @param reducer computes reduction of temporary reduction data and stores it in external result
+	 */
+	public static <T> void For(int start, int stop, int delta, int grainSize, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
+		final int n = iterations(start, stop, delta);
+		if (n == 0) return;
 		
-		if (start == stop) return;
+		final LoopState state = new LoopState(start, delta, (grainSize > 0) ? grainSize : defaultGrainSize(n), n);
+		final RedForTask<T> task = new RedForTask<T>(state, 0, n, creator, loopBody);
 		
-		ExecutorService executor = null;
-		List<ReductionData<T>> redData = null;
+		getPool().invoke(task);
+		state.rethrow();
+		task.reduce(reducer);
+	}
+	
+	/**
+	 * Parallel tiled loop: executes the tileBody for each tile of size DefaultTileSize x DefaultTileSize covering the image
+	 * @param width image width
+	 * @param height image height
+	 * @param tileBody
+	 */
+	public static void forTiles(int width, int height, final TileBody tileBody) {
+		forTiles(width, height, DefaultTileSize, DefaultTileSize, 0, tileBody);
+	}
+
+	/**
+	 * Parallel tiled loop: executes the tileBody for each tile of size tileW x tileH covering the image.
+	 * Tiles at the right and bottom border might be smaller.
+	 * @param width image width
+	 * @param height image height
+	 * @param tileW tile width > 0
+	 * @param tileH tile height > 0
+	 * @param tileBody
+	 */
+	public static void forTiles(int width, int height, int tileW, int tileH, final TileBody tileBody) {
+		forTiles(width, height, tileW, tileH, 0, tileBody);
+	}
+
+	/**
+	 * Parallel tiled loop: executes the tileBody for each tile of size tileW x tileH covering the image.
+	 * Tiles at the right and bottom border might be smaller. 
+	 * Each tile additionally contains its surrounding region enlarged by halo pixels on each side and clipped to the image.
+	 * Tiles are handed out in row-major order, so neighboring tasks work on neighboring image regions.
+	 * @param width image width
+	 * @param height image height
+	 * @param tileW tile width > 0
+	 * @param tileH tile height > 0
+	 * @param halo >= 0
+	 * @param tileBody
+	 */
+	public static void forTiles(int width, int height, int tileW, int tileH, int halo, final TileBody tileBody) {
+		assert tileW > 0 && tileH > 0 : "wrong tile size: " + tileW + " x " + tileH;
+		assert halo >= 0 : "halo must not be negative: " + halo;
+		
+		final int nx = (width + tileW - 1)/tileW;
+		final int ny = (height + tileH - 1)/tileH;
+		if (nx <= 0 || ny <= 0) return;
+		
+		For(0, nx*ny, 1, 1, t -> {
+			final Tile tile = new Tile();
+			
+			tile.m_x0 = (t%nx)*tileW;
+			tile.m_y0 = (t/nx)*tileH;
+			tile.m_x1 = Math.min(tile.m_x0 + tileW, width);
+			tile.m_y1 = Math.min(tile.m_y0 + tileH, height);
+			tile.m_hx0 = Math.max(tile.m_x0 - halo, 0);
+			tile.m_hy0 = Math.max(tile.m_y0 - halo, 0);
+			tile.m_hx1 = Math.min(tile.m_x1 + halo, width);
+			tile.m_hy1 = Math.min(tile.m_y1 + halo, height);
+			tileBody.run(tile);
+		});
+	}
+	
+	/**
+	 * Returns the number of iterations of a loop over [start, stop) with step size delta
+	 * @param start
+	 * @param stop
+	 * @param delta != 0
+	 * @return number of iterations
+	 */
+	private static int iterations(int start, int stop, int delta) {
+		assert delta != 0 : "delta must be not 0: " + delta;
 		
 		if (start < stop) {
 			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j < iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
-		} else {
-			// start > stop
+			return (int)(((long)stop - start + delta - 1)/delta);
+		} else if (start > stop) {
 			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j > iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
+			return (int)(((long)start - stop - delta - 1)/-delta);
+		} else {
+			return 0;
 		}
-
-        for (ReductionData<T> rd : redData) {
-        	try { 
-        		rd.future.get();
-        		if (rd.data != null) {
-        			reducer.run(rd.data);
-        		}
-		    } catch (InterruptedException | ExecutionException e) { 
-				e.printStackTrace();
-		    }
-        }
-	    executor.shutdown();     
+	}
+	
+	/**
+	 * Adaptive grain size: creates about TasksPerWorker leaf tasks per worker thread, 
+	 * so that workers finishing early can steal the remaining parts of slower workers
+	 * @param n number of iterations
+	 * @return grain size
+	 */
+	private static int defaultGrainSize(int n) {
+		return Math.max(1, n/(TasksPerWorker*getParallelism()));
 	}
 }
-
-
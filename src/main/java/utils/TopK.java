@@ -0,0 +1,127 @@
+package utils;
+
+/**
+ * Space bounded collection of the k best scores with integer ids.
+ * Scores and ids are stored in two parallel arrays forming a min heap, hence no objects are created per element.
+ * Scores below the current k-th best score are rejected in O(1), insertions take O(log k).
+ * Use one instance per thread and merge them at the end.
+ */
+public class TopK {
+	private final int m_capacity;	// maximum number of elements
+	private final double[] m_scores;// min heap of scores
+	private final int[] m_ids;		// id of each score
+	private int m_size;				// number of elements
+
+	/**
+	 * Creates an empty collection for a maximum of capacity elements
+	 * @param capacity
+	 */
+	public TopK(int capacity) {
+		m_capacity = capacity;
+		m_scores = new double[capacity];
+		m_ids = new int[capacity];
+	}
+
+	/**
+	 * Returns true if score would be inserted
+	 * @param score
+	 * @return
+	 */
+	public boolean accepts(double score) {
+		return m_size < m_capacity || (m_capacity > 0 && score > m_scores[0]);
+	}
+
+	/**
+	 * Returns the lowest score that is still stored, -infinity if the collection isn't full, 
+	 * or +infinity if the capacity is 0
+	 * @return
+	 */
+	public double threshold() {
+		if (m_size < m_capacity) return Double.NEGATIVE_INFINITY;
+		return (m_capacity > 0) ? m_scores[0] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Adds a score. If the collection is full, the lowest score is replaced.
+	 * @param score
+	 * @param id
+	 * @return true if the score has been inserted
+	 */
+	public boolean add(double score, int id) {
+		if (m_size < m_capacity) {
+			// sift up
+			int i = m_size++;
+			while (i > 0) {
+				final int parent = (i - 1) >> 1;
+				if (m_scores[parent] <= score) break;
+				m_scores[i] = m_scores[parent];
+				m_ids[i] = m_ids[parent];
+				i = parent;
+			}
+			m_scores[i] = score;
+			m_ids[i] = id;
+			return true;
+		} else if (m_capacity > 0 && score > m_scores[0]) {
+			// replace root and sift down
+			int i = 0;
+			while (true) {
+				int child = 2*i + 1;
+				if (child >= m_size) break;
+				if (child + 1 < m_size && m_scores[child + 1] < m_scores[child]) child++;
+				if (score <= m_scores[child]) break;
+				m_scores[i] = m_scores[child];
+				m_ids[i] = m_ids[child];
+				i = child;
+			}
+			m_scores[i] = score;
+			m_ids[i] = id;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Adds all elements of other
+	 * @param other
+	 */
+	public void addAll(TopK other) {
+		for (int i = 0; i < other.m_size; i++) {
+			add(other.m_scores[i], other.m_ids[i]);
+		}
+	}
+
+	/**
+	 * Returns the number of stored elements
+	 * @return
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	/**
+	 * Returns the maximum number of elements
+	 * @return
+	 */
+	public int capacity() {
+		return m_capacity;
+	}
+
+	/**
+	 * Returns the score of element i in heap order
+	 * @param i index in [0, size)
+	 * @return
+	 */
+	public double getScore(int i) {
+		return m_scores[i];
+	}
+
+	/**
+	 * Returns the id of element i in heap order
+	 * @param i index in [0, size)
+	 * @return
+	 */
+	public int getId(int i) {
+		return m_ids[i];
+	}
+}